@@ -1,6 +1,7 @@
 package model.command.turtle.command;
 
 import model.Model;
+import model.ParallelTurtles;
 import model.command.Command;
 
 /**
@@ -22,7 +23,7 @@ public class Backward extends Command {
         double ret = 0;
         for(Command d : this.parameters) {
             final double pixels = d.execute(model);
-            model.getTurtles().run( t -> t.moveAlongHeading(-pixels));
+            ParallelTurtles.run(model, t -> t.moveAlongHeading(-pixels));
             ret = pixels;
         }
         return ret;
@@ -0,0 +1,195 @@
+package Controller;
+
+import model.CommandOutcome;
+import model.ModelController;
+import model.Result;
+import model.TrailLines;
+import model.command.ExecutionBudget;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs every `.logovar` program in a directory without the GUI, spread across a pool of threads with a
+ * model of its own for each program, so drawings can be regenerated in bulk and throughput grows with the
+ * number of cores. For each program it writes a summary of the final state of its model, and it writes a
+ * table of every program's timing and errors along with the overall throughput. A program that fails
+ * outright gets a row with its failure rather than stopping the batch.
+ * No JavaFX stage, scene or event is created by the runner itself, and the model classes in this repository
+ * only reach JavaFX through TrailLines. Model, Turtle and ImmutableTurtle still use JavaFX colors, lines and
+ * image views, so the JavaFX jars must be on the classpath, and whether those classes load on a machine
+ * without a display depends on the JavaFX build.
+ * <p>
+ * Usage: {@code BatchRunner <program directory> <output directory> [threads] [time limit in ms]}, where
+ * threads defaults to the number of cores and the time limit, if given, applies to each top-level command.
+ *
+ * @author agent
+ */
+public class BatchRunner {
+
+    private static final String PROGRAM_EXTENSION = ".logovar";
+    private static final String SUMMARY_EXTENSION = ".summary";
+    private static final String TIMINGS_FILE = "batch-summary.csv";
+    private static final String TIMINGS_HEADER = "program,milliseconds,commands,errors,turtles,variables,failure";
+    private static final String QUOTE = "\"";
+    private static final String CREATE_TURTLE = "ct";
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private Path output;
+    private int threads;
+    private long timeLimitMillis;
+
+    /**
+     * Create a batch runner.
+     * @param output the directory the summaries are written to
+     * @param threads the number of programs run at once
+     * @param timeLimitMillis the number of milliseconds each top-level command may run, or ExecutionBudget.UNLIMITED
+     */
+    public BatchRunner(Path output, int threads, long timeLimitMillis) {
+        this.output = output;
+        this.threads = threads;
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: BatchRunner <program directory> <output directory> [threads] [time limit in ms]");
+            return;
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        long timeLimit = args.length > 3 ? Long.parseLong(args[3]) : ExecutionBudget.UNLIMITED;
+        var runner = new BatchRunner(Paths.get(args[1]), threads, timeLimit);
+        runner.run(Paths.get(args[0]));
+    }
+
+    /**
+     * Runs every program in a directory, writes their summaries and the timings table, and prints the throughput.
+     * @param programs the directory holding the `.logovar` programs
+     * @throws IOException if the directory cannot be listed or the output cannot be written
+     * @throws InterruptedException if interrupted while waiting for the programs to finish
+     */
+    public void run(Path programs) throws IOException, InterruptedException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(programs)) {
+            files = listing.filter(file -> file.toString().endsWith(PROGRAM_EXTENSION)).sorted().collect(Collectors.toList());
+        }
+        Files.createDirectories(output);
+        var executor = Executors.newFixedThreadPool(threads);
+        var summaries = new ArrayList<Future<Summary>>();
+        long start = System.nanoTime();
+        for (Path file : files) {
+            summaries.add(executor.submit(() -> runProgram(file)));
+        }
+        var timings = new ArrayList<String>();
+        timings.add(TIMINGS_HEADER);
+        long busyNanos = 0;
+        try {
+            for (int i = 0; i < summaries.size(); i++) {
+                try {
+                    var summary = summaries.get(i).get();
+                    timings.add(summary.toRow());
+                    busyNanos += summary.nanos;
+                } catch (ExecutionException e) {
+                    timings.add(failureRow(files.get(i), e.getCause()));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long wallNanos = System.nanoTime() - start;
+        Files.write(output.resolve(TIMINGS_FILE), timings, Charset.forName("UTF-8"));
+        System.out.printf("%d programs on %d threads in %.1f ms, %.1f programs/s, %.2fx parallel speedup%n",
+                files.size(), threads, wallNanos / NANOS_PER_MILLI, files.size() / (wallNanos / NANOS_PER_MILLI / 1000),
+                wallNanos == 0 ? 0 : (double) busyNanos / wallNanos);
+    }
+
+    private Summary runProgram(Path file) throws IOException {
+        var controller = new ModelController();
+        if (timeLimitMillis != ExecutionBudget.UNLIMITED) {
+            controller.setExecutionBudget(ExecutionBudget.UNLIMITED, timeLimitMillis);
+        }
+        var summary = new Summary(file);
+        controller.addOutcomeListener(summary::add);
+        long start = System.nanoTime();
+        controller.execute(CREATE_TURTLE);
+        if (!controller.load(file)) {
+            summary.errors.add("Could not read " + file);
+        }
+        summary.nanos = System.nanoTime() - start;
+        summary.last = controller.snapshot();
+        String name = file.getFileName().toString();
+        name = name.substring(0, name.length() - PROGRAM_EXTENSION.length());
+        Files.write(output.resolve(name + SUMMARY_EXTENSION), summary.describe(), Charset.forName("UTF-8"));
+        return summary;
+    }
+
+    private static String failureRow(Path file, Throwable failure) {
+        return file.getFileName() + ",,,,,," + quoted(String.valueOf(failure));
+    }
+
+    private static String quoted(String field) {
+        return QUOTE + field.replace(QUOTE, QUOTE + QUOTE) + QUOTE;
+    }
+
+    // Counts the outcomes of one program and holds its final snapshot; only touched by the thread running it
+    // until it is returned
+    private static class Summary {
+
+        private Path file;
+        private long nanos;
+        private int commands;
+        private List<String> errors;
+        private Result last;
+
+        Summary(Path file) {
+            this.file = file;
+            errors = new ArrayList<>();
+        }
+
+        void add(CommandOutcome outcome) {
+            commands++;
+            if (outcome.isError()) {
+                errors.add(outcome.getCommandString() + ": " + outcome.getReturnString());
+            }
+        }
+
+        List<String> describe() {
+            var lines = new ArrayList<String>();
+            lines.add("program " + file);
+            lines.add(String.format("time %.3f ms", nanos / NANOS_PER_MILLI));
+            lines.add(String.format("background #%08x", last.getBackgroundArgb()));
+            for (var entry : new TreeMap<>(last.getTurtles()).entrySet()) {
+                var turtle = entry.getValue();
+                lines.add(String.format("turtle %d at %.4f %.4f heading %.4f %s, %d trail lines", entry.getKey(),
+                        turtle.getX(), turtle.getY(), turtle.getHeading(), turtle.isVisible() ? "shown" : "hidden",
+                        TrailLines.count(turtle)));
+            }
+            for (var entry : new TreeMap<>(last.getVariables()).entrySet()) {
+                lines.add("variable " + entry.getKey() + " = " + entry.getValue());
+            }
+            for (String name : last.getUserCommands()) {
+                lines.add("user command " + name);
+            }
+            for (String error : errors) {
+                lines.add("error " + error);
+            }
+            return lines;
+        }
+
+        String toRow() {
+            return String.format("%s,%.3f,%d,%d,%d,%d,", file.getFileName(), nanos / NANOS_PER_MILLI, commands,
+                    errors.size(), last.getTurtles().size(), last.getVariables().size());
+        }
+    }
+}
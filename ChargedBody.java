@@ -0,0 +1,75 @@
+package model.command.control;
+
+import model.Model;
+import model.command.Command;
+import model.command.ExecutionBudget;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+
+/**
+ * The body of a loop whose command does not charge the execution budget itself, such as repeat and dotimes.
+ * The parser wraps the bodies of these loops in this, so every iteration charges the size of the body, and the
+ * loop can be cancelled or run out of its budget just like a for loop. The loops run their body by executing it,
+ * so the wrapper is passed through to them in place of the body.
+ *
+ * @author agent
+ */
+public class ChargedBody extends Command {
+
+    private static final String CONTROL_PACKAGE = "model.command.control";
+    // The loops that run their last parameter as the body without charging the budget, until their classes do
+    private static final Set<String> UNCHARGED_LOOPS = Set.of(CONTROL_PACKAGE + ".Repeat", CONTROL_PACKAGE + ".DoTimes");
+
+    private int bodySize = -1;
+
+    /**
+     * Create a charged body.
+     * @param body the body of the loop
+     */
+    public ChargedBody(Command body) {
+        super();
+        addParameter(body);
+        argCount = 1;
+    }
+
+    /**
+     * Wraps the body of every loop in a freshly parsed tree that does not charge the budget itself. The tree is
+     * walked with an explicit stack, so deep nesting is fine.
+     * @param root the root of the tree
+     * @return the root, for chaining
+     */
+    public static Command wrapLoops(Command root) {
+        var pending = new ArrayDeque<Command>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            var command = pending.pop();
+            var parameters = command.getParameters();
+            int last = parameters.size() - 1;
+            if (last >= 0 && UNCHARGED_LOOPS.contains(command.getClass().getName())
+                    && !(parameters.get(last) instanceof ChargedBody)) {
+                command.setParameter(last, new ChargedBody(parameters.get(last)));
+            }
+            for (Command c : command.getParameters()) {
+                pending.push(c);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * @return the body of the loop
+     */
+    public Command getBody() {
+        return parameters.get(0);
+    }
+
+    @Override
+    public double execute(Model model) {
+        if (bodySize < 0) {
+            bodySize = ExecutionBudget.size(getBody());
+        }
+        ExecutionBudget.charge(bodySize);
+        return getBody().execute(model);
+    }
+}
@@ -2,6 +2,7 @@ package model.command;
 
 import model.Model;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
@@ -14,14 +15,29 @@ import java.util.ResourceBundle;
  */
 public abstract class Command {
 
+    private static final String PARAMETER_ARROW = " -> ";
+    // Whether a command class prints itself rather than printing its parameters the way this class does
+    private static final ClassValue<Boolean> OWN_STRING = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("toString").getDeclaringClass() != Command.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
     protected ArrayList<Command> parameters;
     protected int argCount;
+    protected CommandKind kind;
 
     /**
      * Create a new command and initialize instance variables.
      */
     public Command() {
         parameters = new ArrayList<>();
+        kind = CommandKind.of(getClass());
     }
 
     /**
@@ -41,6 +57,15 @@ public abstract class Command {
         parameters.add(c);
     }
 
+    /**
+     * Replace a parameter of the command, for example with an optimized version of it.
+     * @param index the position of the parameter
+     * @param c the new command parameter
+     */
+    public void setParameter(int index, Command c) {
+        parameters.set(index, c);
+    }
+
     /**
      * Get the list of parameters for this command.
      * @return the list of parameters
@@ -58,30 +83,47 @@ public abstract class Command {
     }
 
     /**
-     * Returns a string representing the command for printing.
+     * Get the kind of this command, which tells the parser how to build its part of the tree.
+     * @return the kind of this command
+     */
+    public CommandKind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns a string representing the command for printing: its name, then each parameter after an arrow.
+     * The tree is walked with an explicit stack, so deep nesting is fine.
      * @return a string representing the command
      */
     @Override
     public String toString() {
-        var str = this.getClass().getName();
-        str = str.replace(this.getClass().getPackageName() + ".", "");
-        var sb = new StringBuilder(str);
-        sb.append("\n");
-        for(Command param : parameters) {
-            sb.append(" -> " + param.toString());
+        var sb = new StringBuilder();
+        var pending = new ArrayDeque<Object>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            var next = pending.pop();
+            if (next instanceof String) {
+                sb.append(next);
+            } else if (next != this && OWN_STRING.get(next.getClass())) {
+                sb.append(next);
+            } else {
+                var command = (Command) next;
+                sb.append(command.getClass().getName().replace(command.getClass().getPackageName() + ".", ""));
+                sb.append("\n");
+                for (int i = command.parameters.size() - 1; i >= 0; i--) {
+                    pending.push(command.parameters.get(i));
+                    pending.push(PARAMETER_ARROW);
+                }
+            }
         }
         return sb.toString();
     }
 
     protected long checkValue(Command param) {
-        long color = 0;
-        if (param.getClass().getSuperclass().getName().equals("model.command.ValueCommand")) {
-            var dub = (double) ((ValueCommand) param).getValue();
-            color = (long) dub;
-        } else {
-            parameters.add(new Error(ResourceBundle.getBundle("Error").getString("MalformedColor")));
-            color = -1;
+        if (param.getKind() != CommandKind.CONSTANT) {
+            throw new CommandException(ResourceBundle.getBundle("Error").getString("MalformedColor"));
         }
-        return color;
+        var dub = (double) ((ValueCommand) param).getValue();
+        return (long) dub;
     }
 }
@@ -0,0 +1,497 @@
+package model;
+
+import model.command.Command;
+import model.command.CommandException;
+import model.command.CommandKind;
+import model.command.ExecutionBudget;
+import model.command.ValueCommand;
+import model.command.control.For;
+import model.command.control.Frame;
+import model.command.control.If;
+import model.command.control.Invariant;
+import model.command.control.InvariantLoop;
+import model.command.control.LocalVariable;
+import model.command.control.MakeVariable;
+import model.command.control.ScopedBody;
+import model.command.control.UserCommand;
+import model.command.control.group.ListBody;
+import model.command.math.Constant;
+import model.command.turtle.command.Backward;
+import model.command.turtle.command.Forward;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+/**
+ * Lowers command trees into trees of closures.
+ * Each supported command becomes a small lambda with its children compiled once and captured directly,
+ * so running it involves no parameter list reads and no copies, and the JIT can inline the whole tree.
+ * Math and turtle commands whose arguments are pure expressions have their arguments compiled, and then run
+ * through their own execute method on a private copy whose parameters are constants holding those values.
+ * Any other command without a specialized form is wrapped and run through its own execute method,
+ * which keeps the results identical to the tree-walking interpreter.
+ * <p>
+ * User command parameters and loop counters were resolved to frame slots by the SlotResolver when the tree
+ * was parsed. Compiled code keeps the slots in a {@code double[]} passed down explicitly, so reading and
+ * writing them involves no hashing or boxing and no state is shared between calls. Loop counters are still
+ * copied to the model's variables when the loop ends. Wrapped commands read their slots through the Frame,
+ * so the compiled slots are published to the Frame while a wrapped command that uses them runs.
+ *
+ * @author agent
+ */
+public class CommandCompiler {
+
+    private static final int FOR_FIRST_GROUP_LENGTH = 4;
+    private static final String MATH_PACKAGE = "model.command.math";
+    private static final String TURTLE_COMMAND_PACKAGE = "model.command.turtle.command";
+    private static final double[] NO_SLOTS = new double[0];
+
+    private Map<String, Function> functions;
+
+    /**
+     * Create a compiler.
+     */
+    public CommandCompiler() {
+        functions = new HashMap<>();
+    }
+
+    /**
+     * Compiles the command tree.
+     * @param command the root of the command tree
+     * @return the compiled form of the tree
+     */
+    public CompiledCommand compile(Command command) {
+        var scope = new Scope(SlotResolver.frameOf(command));
+        var code = compile(command, scope);
+        int size = scope.size;
+        if (size == 0) {
+            return model -> code.execute(model, NO_SLOTS);
+        }
+        return model -> code.execute(model, new double[size]);
+    }
+
+    /**
+     * Get the compiled body of a user command, shared by every call site of that body.
+     * Bodies are kept per user command name, for the body that name currently has. A redefinition produces a
+     * new body, which replaces the old one, so the compiler never holds more bodies than there are names.
+     * Call sites compiled against the old body keep their own reference to it for as long as they live.
+     * @param name the name of the user command, or null if it has none, in which case the body is not shared
+     * @param body the body of the user command, with the frame its parameters were resolved to
+     * @return the compiled body
+     */
+    private Function function(String name, ScopedBody body) {
+        var function = name == null ? null : functions.get(name);
+        if (function == null || function.body != body) {
+            var scope = new Scope(body.getFrame());
+            var code = compile(body.getBody(), scope);
+            function = new Function(body, code, scope.size);
+            if (name != null) {
+                functions.put(name, function);
+            }
+        }
+        return function;
+    }
+
+    /**
+     * Compiles each command in the list.
+     * @param commands the commands to compile
+     * @param scope the variables resolved to frame slots
+     * @return the compiled commands, in the same order
+     */
+    protected Code[] compileAll(List<Command> commands, Scope scope) {
+        var compiled = new Code[commands.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = compile(commands.get(i), scope);
+        }
+        return compiled;
+    }
+
+    /**
+     * Compiles the command tree within a scope.
+     * @param command the root of the command tree
+     * @param scope the variables resolved to frame slots
+     * @return the compiled form of the tree
+     */
+    protected Code compile(Command command, Scope scope) {
+        if (command.getKind() == CommandKind.CONSTANT) {
+            return compileConstant(command);
+        } else if (command.getKind() == CommandKind.VARIABLE) {
+            return compileVariable(command, scope);
+        } else if (command instanceof ListBody) {
+            return compileBody(command.getParameters(), scope);
+        } else if (command instanceof If) {
+            return compileIf(command.getParameters(), scope);
+        } else if (command instanceof For) {
+            return compileFor(command, scope);
+        } else if (command instanceof MakeVariable) {
+            return compileMakeVariable(command, scope);
+        } else if (command instanceof Forward) {
+            return compileMove(command.getParameters(), 1, scope);
+        } else if (command instanceof Backward) {
+            return compileMove(command.getParameters(), -1, scope);
+        } else if (command instanceof UserCommand) {
+            return compileUserCommand((UserCommand) command, scope);
+        } else if (command instanceof InvariantLoop) {
+            return compileInvariantLoop((InvariantLoop) command, scope);
+        } else if (command instanceof Invariant) {
+            return compileInvariant(command, scope);
+        } else if (takesPureArguments(command)) {
+            var code = compileWithArguments(command, scope);
+            if (code != null) {
+                return code;
+            }
+        }
+        return compileWrapped(command, scope);
+    }
+
+    private Code compileConstant(Command command) {
+        final double value = ((ValueCommand<Double>) command).getValue();
+        return (model, frame) -> value;
+    }
+
+    private Code compileVariable(Command command, Scope scope) {
+        if (!scope.owns(command)) {
+            return (model, frame) -> command.execute(model);
+        }
+        int slot = ((LocalVariable) command).getSlot();
+        return (model, frame) -> frame[slot];
+    }
+
+    private Code compileBody(List<Command> parameters, Scope scope) {
+        var body = compileAll(parameters, scope);
+        if (body.length == 1) {
+            return body[0];
+        }
+        return (model, frame) -> {
+            double returnValue = 0;
+            for (Code c : body) {
+                returnValue = c.execute(model, frame);
+            }
+            return returnValue;
+        };
+    }
+
+    private Code compileIf(List<Command> parameters, Scope scope) {
+        var condition = compile(parameters.get(0), scope);
+        var body = compile(parameters.get(1), scope);
+        return (model, frame) -> condition.execute(model, frame) != 0 ? body.execute(model, frame) : 0;
+    }
+
+    private Code compileFor(Command loop, Scope scope) {
+        var parameters = loop.getParameters();
+        List<Command> firstGroup = parameters.get(0).getParameters();
+        if (firstGroup.size() != FOR_FIRST_GROUP_LENGTH || !(firstGroup.get(0) instanceof ValueCommand)) {
+            return fail(ResourceBundle.getBundle("Error").getString("MalformedForFirstGroup"));
+        } else if (!scope.owns(firstGroup.get(0))) {
+            return compileWrapped(loop, scope);
+        }
+        var counter = (LocalVariable) firstGroup.get(0);
+        String variableName = counter.getValue();
+        var start = compile(firstGroup.get(1), scope);
+        var end = compile(firstGroup.get(2), scope);
+        var increment = compile(firstGroup.get(3), scope);
+        int bodySize = ExecutionBudget.size(parameters.get(1));
+        boolean global = !counter.isParameter();
+        int slot = counter.getSlot();
+        var body = compile(parameters.get(1), scope);
+        return (model, frame) -> {
+            double first = start.execute(model, frame);
+            double last = end.execute(model, frame);
+            double step = increment.execute(model, frame);
+            var budget = ExecutionBudget.current();
+            double returnValue = 0;
+            for (double i = first; i <= last; i += step) {
+                budget.spend(bodySize);
+                frame[slot] = i;
+                returnValue = body.execute(model, frame);
+            }
+            if (global && first <= last) {
+                model.getVariables().put(variableName, frame[slot]);
+            }
+            return returnValue;
+        };
+    }
+
+    private Code compileMakeVariable(Command command, Scope scope) {
+        var parameters = command.getParameters();
+        if (!(parameters.get(0) instanceof ValueCommand)) {
+            return fail(ResourceBundle.getBundle("Error").getString("MalformedMakeVariable"));
+        } else if (parameters.get(0) instanceof LocalVariable && !scope.owns(parameters.get(0))) {
+            return compileWrapped(command, scope);
+        }
+        var value = compile(parameters.get(1), scope);
+        if (parameters.get(0) instanceof LocalVariable) {
+            int slot = ((LocalVariable) parameters.get(0)).getSlot();
+            return (model, frame) -> frame[slot] = value.execute(model, frame);
+        }
+        String variable = ((ValueCommand<String>) parameters.get(0)).getValue();
+        return (model, frame) -> {
+            double v = value.execute(model, frame);
+            model.getVariables().put(variable, v);
+            return v;
+        };
+    }
+
+    /**
+     * Compiles a loop with hoisted invariants. Each invariant has a slot for its value and one that tells
+     * whether it has been evaluated in this run of the loop, which are cleared every time the loop starts.
+     * The slots the optimizer reserved are used when the loop belongs to the frame being compiled.
+     */
+    private Code compileInvariantLoop(InvariantLoop loop, Scope scope) {
+        var invariants = loop.getInvariants();
+        boolean owned = !invariants.isEmpty() && loop.getFrame() == scope.frame;
+        int first = owned ? invariants.get(0).getSlot() : scope.reserve(2 * invariants.size());
+        for (int i = 0; i < invariants.size(); i++) {
+            scope.invariants.put(invariants.get(i), first + 2 * i);
+        }
+        var body = compile(loop.getParameters().get(0), scope);
+        for (Invariant invariant : invariants) {
+            scope.invariants.remove(invariant);
+        }
+        int last = first + 2 * invariants.size();
+        return (model, frame) -> {
+            Arrays.fill(frame, first, last, 0);
+            return body.execute(model, frame);
+        };
+    }
+
+    private Code compileInvariant(Command invariant, Scope scope) {
+        var expression = compile(invariant.getParameters().get(0), scope);
+        var slot = scope.invariants.get(invariant);
+        if (slot == null) {
+            return expression;
+        }
+        int value = slot;
+        int evaluated = slot + 1;
+        return (model, frame) -> {
+            if (frame[evaluated] == 0) {
+                frame[value] = expression.execute(model, frame);
+                frame[evaluated] = 1;
+            }
+            return frame[value];
+        };
+    }
+
+    private Code compileMove(List<Command> parameters, int direction, Scope scope) {
+        var distances = compileAll(parameters, scope);
+        return (model, frame) -> {
+            double ret = 0;
+            for (Code d : distances) {
+                final double pixels = d.execute(model, frame);
+                ParallelTurtles.run(model, t -> t.moveAlongHeading(direction * pixels));
+                ret = pixels;
+            }
+            return ret;
+        };
+    }
+
+    /**
+     * Checks whether the command is a math or turtle command all of whose arguments are pure expressions,
+     * so evaluating each argument once up front cannot be told apart from however often the command itself
+     * evaluates it.
+     */
+    private boolean takesPureArguments(Command command) {
+        var packageName = command.getClass().getPackageName();
+        if (command.getKind() != CommandKind.COMMAND
+                || !(packageName.equals(MATH_PACKAGE) || packageName.equals(TURTLE_COMMAND_PACKAGE))) {
+            return false;
+        }
+        for (Command c : command.getParameters()) {
+            if (!isPureExpression(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isPureExpression(Command command) {
+        if (command.getKind() == CommandKind.CONSTANT || command.getKind() == CommandKind.VARIABLE) {
+            return true;
+        } else if (!(CommandOptimizer.isPure(command) || command instanceof Invariant)) {
+            return false;
+        }
+        for (Command c : command.getParameters()) {
+            if (!isPureExpression(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compiles a command whose arguments are pure expressions. The arguments are compiled and evaluated in
+     * the frame, and the command then runs on a private copy of itself whose parameters are constants holding
+     * their values, so it never needs a variable from the model. The copy is locked while it runs, since a
+     * compiled tree may be shared.
+     * @return the compiled command, or null if the command cannot be copied through the registry
+     */
+    private Code compileWithArguments(Command command, Scope scope) {
+        var parameters = command.getParameters();
+        if (parameters.isEmpty()) {
+            return (model, frame) -> command.execute(model);
+        }
+        var path = command.getClass().getName().substring(CommandRegistry.COMMAND_PACKAGE.length());
+        var copy = CommandRegistry.create(path);
+        if (copy == null) {
+            return null;
+        }
+        var arguments = compileAll(parameters, scope);
+        var constants = new Constant[arguments.length];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = new Constant();
+            copy.addParameter(constants[i]);
+        }
+        return (model, frame) -> {
+            synchronized (copy) {
+                for (int i = 0; i < arguments.length; i++) {
+                    constants[i].setValue(arguments[i].execute(model, frame));
+                }
+                return copy.execute(model);
+            }
+        };
+    }
+
+    /**
+     * Wraps a command that runs through its own execute method. If the command reads or assigns slots of the
+     * running frame, the compiled slots are published to the Frame while it runs.
+     */
+    private Code compileWrapped(Command command, Scope scope) {
+        var published = scope.frame;
+        if (published == null || !usesFrame(command, published)) {
+            return (model, frame) -> command.execute(model);
+        }
+        return (model, frame) -> {
+            var previous = published.enter(frame);
+            try {
+                return command.execute(model);
+            } finally {
+                published.exit(previous);
+            }
+        };
+    }
+
+    /**
+     * Compiles a call site of a user command. The arguments are checked the same way UserCommand does and
+     * compiled in the caller's scope, and the body is compiled along with the first call site of it.
+     */
+    private Code compileUserCommand(UserCommand command, Scope scope) {
+        var parameters = command.getParameters();
+        var variables = parameters.get(0).getParameters();
+        var values = parameters.get(2).getParameters();
+        for (int i = 0; i < variables.size(); i++) {
+            if (!(variables.get(i) instanceof ValueCommand) || i >= values.size()) {
+                return fail(ResourceBundle.getBundle("Error").getString("MalformedUserCommand"));
+            }
+        }
+        var arguments = compileAll(values.subList(0, variables.size()), scope);
+        var body = function(command.getName(), command.getBody());
+        return (model, frame) -> {
+            var evaluated = new double[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                evaluated[i] = arguments[i].execute(model, frame);
+            }
+            return body.invoke(model, evaluated);
+        };
+    }
+
+    /**
+     * Checks whether a command reads or assigns a slot of the frame, leaving out the user command bodies
+     * it defines or calls, which have frames of their own.
+     */
+    private boolean usesFrame(Command command, Frame frame) {
+        var pending = new ArrayDeque<Command>();
+        pending.push(command);
+        while (!pending.isEmpty()) {
+            var c = pending.pop();
+            if (c instanceof LocalVariable && ((LocalVariable) c).getFrame() == frame) {
+                return true;
+            } else if (!(c instanceof ScopedBody)) {
+                pending.addAll(c.getParameters());
+            }
+        }
+        return false;
+    }
+
+    private Code fail(String message) {
+        return (model, frame) -> {
+            throw new CommandException(message);
+        };
+    }
+
+    /**
+     * A compiled command, which reads and writes its slotted variables in the frame it is given.
+     */
+    @FunctionalInterface
+    protected interface Code {
+
+        /**
+         * Executes the compiled command on the model.
+         * @param model the model on which to execute the command
+         * @param frame the slots of the tree or user command body that is running
+         * @return the result of the command's execution
+         */
+        double execute(Model model, double[] frame);
+    }
+
+    /**
+     * A compiled user command body, which takes its parameters in the first slots of a frame of its own.
+     */
+    private static class Function {
+        private ScopedBody body;
+        private Code code;
+        private int frameSize;
+        private int bodySize;
+
+        private Function(ScopedBody body, Code code, int frameSize) {
+            this.body = body;
+            this.code = code;
+            this.frameSize = frameSize;
+            bodySize = ExecutionBudget.size(body.getBody());
+        }
+
+        /**
+         * Runs the body in a new frame holding the arguments.
+         */
+        double invoke(Model model, double[] arguments) {
+            ExecutionBudget.charge(bodySize);
+            double[] frame = new double[frameSize];
+            System.arraycopy(arguments, 0, frame, 0, arguments.length);
+            return code.execute(model, frame);
+        }
+    }
+
+    /**
+     * The frame being compiled: the one the SlotResolver gave the tree or user command body, whose slots the
+     * compiled code keeps in the array it is passed, followed by slots reserved for the hoisted values of the
+     * invariant loops inside it.
+     */
+    protected static class Scope {
+        private Frame frame;
+        private int size;
+        private Map<Command, Integer> invariants;
+
+        private Scope(Frame frame) {
+            this.frame = frame;
+            size = frame == null ? 0 : frame.size();
+            invariants = new IdentityHashMap<>();
+        }
+
+        private int reserve(int count) {
+            int first = size;
+            size += count;
+            return first;
+        }
+
+        /**
+         * @return true if the command is a variable resolved to a slot of this frame
+         */
+        private boolean owns(Command command) {
+            return command instanceof LocalVariable && ((LocalVariable) command).getFrame() == frame;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package model.command;
+
+/**
+ * Thrown when a command cannot be executed, for example because its parameters are malformed.
+ * Commands report problems this way instead of adding Error nodes to their parameters, so that
+ * executing a command tree never changes it and the same tree can safely be executed again.
+ *
+ * @author agent
+ */
+public class CommandException extends RuntimeException {
+
+    /**
+     * Create a new command exception.
+     * @param message the error message shown to the user
+     */
+    public CommandException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,90 @@
+package model.command;
+
+import model.command.control.LocalVariable;
+import model.command.control.UserCommand;
+import model.command.control.Variable;
+import model.command.control.group.GroupEnd;
+import model.command.control.group.GroupStart;
+import model.command.control.group.ListEnd;
+import model.command.control.group.ListStart;
+import model.command.math.Constant;
+
+import java.util.Set;
+
+/**
+ * The kinds of commands the parser has to treat specially while building command trees.
+ * Each command class is tagged once, the first time it is instantiated, so that the parser can tell
+ * commands apart without comparing class names.
+ *
+ * @author agent
+ */
+public enum CommandKind {
+    CONSTANT,
+    VARIABLE,
+    VALUE,
+    USER_COMMAND,
+    LIST_START,
+    LIST_END,
+    GROUP_START,
+    GROUP_END,
+    COMMAND;
+
+    private static final String MATH_PACKAGE = "model.command.math";
+    // The random commands, which cannot carry the Impure annotation until their classes do
+    private static final Set<String> UNMARKED_IMPURE = Set.of(MATH_PACKAGE + ".Random", MATH_PACKAGE + ".RandomRange");
+
+    private static final ClassValue<Boolean> PURE = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return type.getPackageName().equals(MATH_PACKAGE) && !type.isAnnotationPresent(Impure.class)
+                    && !UNMARKED_IMPURE.contains(type.getName());
+        }
+    };
+
+    private static final ClassValue<CommandKind> KINDS = new ClassValue<>() {
+        @Override
+        protected CommandKind computeValue(Class<?> type) {
+            return classify(type);
+        }
+    };
+
+    /**
+     * Get the kind of the given command class.
+     * @param type the command class
+     * @return the kind of the command class
+     */
+    public static CommandKind of(Class<?> type) {
+        return KINDS.get(type);
+    }
+
+    /**
+     * Checks whether a command class is pure math, which always gives the same value for the same arguments
+     * and has no effect on the model: a math command not marked Impure.
+     * @param type the command class
+     * @return true if the command class is pure
+     */
+    public static boolean isPure(Class<?> type) {
+        return PURE.get(type);
+    }
+
+    private static CommandKind classify(Class<?> type) {
+        if (type == Constant.class) {
+            return CONSTANT;
+        } else if (type == Variable.class || type == LocalVariable.class) {
+            return VARIABLE;
+        } else if (type == UserCommand.class) {
+            return USER_COMMAND;
+        } else if (type == ListStart.class) {
+            return LIST_START;
+        } else if (type == ListEnd.class) {
+            return LIST_END;
+        } else if (type == GroupStart.class) {
+            return GROUP_START;
+        } else if (type == GroupEnd.class) {
+            return GROUP_END;
+        } else if (type.getSuperclass() == ValueCommand.class) {
+            return VALUE;
+        }
+        return COMMAND;
+    }
+}
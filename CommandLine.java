@@ -1,6 +1,8 @@
 package GUI.TabbedGUI.Tabs.Windows.CommandWindows;
 
 import javafx.beans.property.StringProperty;
+import javafx.event.Event;
+import javafx.event.EventType;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextArea;
 import javafx.scene.input.KeyCode;
@@ -10,10 +12,17 @@ import javafx.scene.layout.HBox;
 /**
  * Command line which can be typed in to enter commands.
  * Press F1 to submit a command, or hit the submit button.
+ * Press Escape, or hit the stop button, to stop the command that is running. This fires a STOP event, which
+ * bubbles up to the window, rather than submitting anything, so no command text is taken for it.
  * @author Hyunjae Lee
  */
 public class CommandLine extends HBox {
 
+    /**
+     * Fired by a command line, as the event's target, when the user asks to stop the running command.
+     */
+    public static final EventType<Event> STOP = new EventType<>(Event.ANY, "COMMAND_LINE_STOP");
+
     private static final double WIDTH_RATIO = 0.9;
     private static final int HBOX_SPACING = 10;
     private static final String CSS_FILE = "CommandHistory.css";
@@ -32,8 +41,9 @@ public class CommandLine extends HBox {
         currentCommandText = commandText;
         var commandPrompt = commandField(width*WIDTH_RATIO,height);
         commandPrompt.textProperty().bindBidirectional(visualText);
-        Button submitButton = makeSubmitButton(width*(1-WIDTH_RATIO), height, commandText);
-        getChildren().addAll(commandPrompt, submitButton);
+        Button submitButton = makeSubmitButton(width*(1-WIDTH_RATIO)/2, height, commandText);
+        Button stopButton = makeStopButton(width*(1-WIDTH_RATIO)/2, height);
+        getChildren().addAll(commandPrompt, submitButton, stopButton);
         setWidth(width);
         setHeight(height);
         setSpacing(HBOX_SPACING);
@@ -61,6 +71,24 @@ public class CommandLine extends HBox {
         return result;
     }
 
+    private Button makeStopButton(double totalWidth, double totalHeight) {
+        var result = new Button("Stop");
+        result.setMaxSize(totalWidth, totalHeight);
+        result.setPrefSize(totalWidth, totalHeight);
+        result.setOnMouseClicked(event -> stop());
+        addEventFilter(KeyEvent.KEY_PRESSED, event -> {
+            if (event.getCode() == KeyCode.ESCAPE) {
+                stop();
+            }
+        });
+        return result;
+    }
+
+    // Leaves the text being typed alone, since the running command is stopped rather than replaced
+    private void stop() {
+        fireEvent(new Event(STOP));
+    }
+
     private void submit(StringProperty commandText) {
         commandText.setValue(currentCommandText.getValue());
         currentCommandText.setValue("");
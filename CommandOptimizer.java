@@ -0,0 +1,264 @@
+package model;
+
+import model.command.Command;
+import model.command.CommandKind;
+import model.command.ValueCommand;
+import model.command.control.For;
+import model.command.control.Frame;
+import model.command.control.If;
+import model.command.control.Invariant;
+import model.command.control.InvariantLoop;
+import model.command.control.LocalVariable;
+import model.command.control.MakeVariable;
+import model.command.control.MotionLoop;
+import model.command.control.Variable;
+import model.command.control.group.ListBody;
+import model.command.math.Constant;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rewrites parsed command trees before they are executed.
+ * Math on constants is folded into a single constant, if statements with a constant condition and loops
+ * that can never run are pruned, and expressions inside a loop that do not depend on anything the loop
+ * changes are hoisted so they are evaluated once per run of the loop instead of once per iteration.
+ * Loops that only run turtle commands with constant arguments are fused into a single MotionLoop.
+ * Math commands not marked Impure are the only commands treated as pure; user command definitions and calls, and
+ * control commands the optimizer does not know, are left untouched.
+ *
+ * @author agent
+ */
+public class CommandOptimizer {
+
+    private static final String CONTROL_PACKAGE = "model.command.control";
+    private static final String TURTLE_COMMAND_PACKAGE = "model.command.turtle.command";
+    private static final int FOR_FIRST_GROUP_LENGTH = 4;
+    private static final int INCREMENT_LOCATION = 3;
+
+    private static final ClassValue<Boolean> KNOWN = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return !type.getPackageName().equals(CONTROL_PACKAGE) || type == If.class || type == For.class
+                    || type == MakeVariable.class || type == Variable.class || type == LocalVariable.class
+                    || type == Invariant.class || type == InvariantLoop.class || type == MotionLoop.class;
+        }
+    };
+
+    private Model model;
+
+    /**
+     * Checks whether a command is pure math, which always gives the same value for the same arguments
+     * and has no effect on the model.
+     * @param command the command
+     * @return true for math commands not marked Impure
+     */
+    static boolean isPure(Command command) {
+        return CommandKind.isPure(command.getClass());
+    }
+
+    /**
+     * Optimizes the command trees. The trees are rewritten in place, so they must not have been executed
+     * or shared yet.
+     * @param commandRoots the roots of freshly parsed command trees
+     * @param model the model the trees will run on, used to evaluate constant math
+     * @return the roots of the optimized trees
+     */
+    public List<Command> optimize(List<Command> commandRoots, Model model) {
+        this.model = model;
+        var optimized = new ArrayList<Command>();
+        for (Command c : commandRoots) {
+            optimized.add(optimize(c));
+        }
+        return optimized;
+    }
+
+    private Command optimize(Command command) {
+        if (!KNOWN.get(command.getClass())) {
+            return command;
+        }
+        var parameters = command.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            var optimized = optimize(parameters.get(i));
+            if (optimized != parameters.get(i)) {
+                command.setParameter(i, optimized);
+            }
+        }
+        if (isPure(command) && command.getKind() != CommandKind.CONSTANT) {
+            return fold(command);
+        } else if (command instanceof If) {
+            return pruneIf(command);
+        } else if (command instanceof For) {
+            return optimizeFor(command);
+        }
+        return command;
+    }
+
+    private Command fold(Command command) {
+        for (Command c : command.getParameters()) {
+            if (c.getKind() != CommandKind.CONSTANT) {
+                return command;
+            }
+        }
+        try {
+            return constant(command.execute(model));
+        } catch (RuntimeException e) {
+            return command;
+        }
+    }
+
+    private Command pruneIf(Command command) {
+        var condition = command.getParameters().get(0);
+        if (condition.getKind() != CommandKind.CONSTANT) {
+            return command;
+        }
+        return value(condition) != 0 ? command.getParameters().get(1) : constant(0);
+    }
+
+    private Command optimizeFor(Command command) {
+        var firstGroup = command.getParameters().get(0).getParameters();
+        if (firstGroup.size() != FOR_FIRST_GROUP_LENGTH || !(firstGroup.get(0) instanceof ValueCommand)) {
+            return command;
+        }
+        var start = firstGroup.get(1);
+        var end = firstGroup.get(2);
+        if (start.getKind() == CommandKind.CONSTANT && end.getKind() == CommandKind.CONSTANT
+                && !(value(start) <= value(end))) {
+            return pruneFor(firstGroup.get(INCREMENT_LOCATION));
+        }
+        var fused = fuseMotion(command);
+        return fused != null ? fused : hoist(command);
+    }
+
+    /**
+     * Replaces a loop that can never run. The loop still evaluates its increment before finding that out,
+     * so an increment that is not a constant is kept, followed by the loop's return value.
+     */
+    private Command pruneFor(Command increment) {
+        if (increment.getKind() == CommandKind.CONSTANT) {
+            return constant(0);
+        }
+        var pruned = new ListBody();
+        pruned.addParameter(increment);
+        pruned.addParameter(constant(0));
+        return pruned;
+    }
+
+    /**
+     * Fuses a loop whose body is nothing but turtle commands with constant arguments, such as forward, back,
+     * right and left.
+     * @return the fused loop, or null if the body does anything else
+     */
+    private Command fuseMotion(Command loop) {
+        var body = loop.getParameters().get(1);
+        var steps = body instanceof ListBody ? body.getParameters() : List.of(body);
+        if (steps.isEmpty()) {
+            return null;
+        }
+        for (Command step : steps) {
+            if (!step.getClass().getPackageName().equals(TURTLE_COMMAND_PACKAGE) || step instanceof MotionLoop
+                    || step.getKind() != CommandKind.COMMAND) {
+                return null;
+            }
+            for (Command argument : step.getParameters()) {
+                if (argument.getKind() != CommandKind.CONSTANT) {
+                    return null;
+                }
+            }
+        }
+        return new MotionLoop(loop, steps);
+    }
+
+    /**
+     * Replaces the largest invariant expressions in the loop's body with Invariant nodes.
+     * Only loops whose body assigns variables through For and MakeVariable alone are hoisted,
+     * since those are the only assignments the optimizer can see.
+     */
+    private Command hoist(Command loop) {
+        var assigned = new HashSet<String>();
+        if (!collectAssignments(loop, assigned)) {
+            return loop;
+        }
+        var invariants = new ArrayList<Invariant>();
+        var body = loop.getParameters().get(1);
+        if (hoistChildren(body, assigned, invariants) && isPure(body)) {
+            var hoisted = new Invariant(body);
+            invariants.add(hoisted);
+            loop.setParameter(1, hoisted);
+        }
+        if (invariants.isEmpty()) {
+            return loop;
+        }
+        var counter = loop.getParameters().get(0).getParameters().get(0);
+        var frame = counter instanceof LocalVariable ? ((LocalVariable) counter).getFrame() : Frame.topLevel();
+        return new InvariantLoop(loop, invariants, frame);
+    }
+
+    /**
+     * @return whether the command is invariant itself, in which case its parent decides whether to hoist it
+     */
+    private boolean hoistChildren(Command command, Set<String> assigned, List<Invariant> invariants) {
+        if (command.getKind() == CommandKind.CONSTANT) {
+            return true;
+        } else if (command.getKind() == CommandKind.VARIABLE) {
+            return !assigned.contains(((ValueCommand<String>) command).getValue());
+        } else if (command instanceof Invariant) {
+            return false;
+        }
+        var parameters = command.getParameters();
+        var invariantChildren = new boolean[parameters.size()];
+        boolean invariant = isPure(command);
+        for (int i = 0; i < parameters.size(); i++) {
+            invariantChildren[i] = hoistChildren(parameters.get(i), assigned, invariants);
+            invariant &= invariantChildren[i];
+        }
+        if (invariant) {
+            return true;
+        }
+        for (int i = 0; i < parameters.size(); i++) {
+            var child = parameters.get(i);
+            if (invariantChildren[i] && isPure(child) && child.getKind() != CommandKind.CONSTANT) {
+                var hoisted = new Invariant(child);
+                invariants.add(hoisted);
+                command.setParameter(i, hoisted);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the names of the variables the command assigns.
+     * @return false if the command may assign variables in ways the optimizer cannot see
+     */
+    private boolean collectAssignments(Command command, Set<String> assigned) {
+        if (!KNOWN.get(command.getClass())) {
+            return false;
+        }
+        if (command instanceof For || command instanceof MakeVariable) {
+            var names = command instanceof For ? command.getParameters().get(0).getParameters() : command.getParameters();
+            var variable = names.isEmpty() ? null : names.get(0);
+            if (!(variable instanceof ValueCommand)) {
+                return false;
+            }
+            assigned.add(String.valueOf(((ValueCommand<?>) variable).getValue()));
+        }
+        for (Command c : command.getParameters()) {
+            if (!collectAssignments(c, assigned)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double value(Command constant) {
+        return ((ValueCommand<Double>) constant).getValue();
+    }
+
+    private Command constant(double value) {
+        var constant = new Constant();
+        constant.setValue(value);
+        return constant;
+    }
+}
@@ -0,0 +1,46 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that optimized trees return the same values and leave the model in the same state as the trees
+ * they were optimized from.
+ *
+ * @author agent
+ */
+public class CommandOptimizerTest {
+
+    @Test
+    public void foldedMathMatchesUnoptimized() {
+        assertSameOptimized("make :x sum 1 product 2 3 fd :x rt difference 90 :x", "fd sum :x 1");
+    }
+
+    @Test
+    public void prunedIfMatchesUnoptimized() {
+        assertSameOptimized("if 0 [ fd 10 ] if 1 [ rt 45 fd 5 ] if difference 2 1 [ make :z 3 ]");
+    }
+
+    @Test
+    public void prunedForStillEvaluatesItsIncrement() {
+        assertSameOptimized("for [ :i 5 1 fd 10 ] [ rt 90 ] for [ :j 3 2 1 ] [ fd 1 ]", "fd 1");
+    }
+
+    @Test
+    public void hoistedLoopInvariantsMatchUnoptimized() {
+        assertSameOptimized("for [ :i 1 20 1 ] [ make :y sum 3 4 fd sum :y :i rt 15 ]", "make :y sum :y 1");
+    }
+
+    @Test
+    public void generatedProgramsMatchUnoptimized() {
+        var generator = new ProgramGenerator();
+        assertSameOptimized(generator.loop(100), generator.nested(20), generator.flat(200));
+        assertSameOptimized(generator.userCommandDefinition(), generator.userCommandCalls(20));
+    }
+
+    private void assertSameOptimized(String... programs) {
+        assertEquals(ExecutionEngineTest.run(new TreeWalkingEngine(), false, programs),
+                ExecutionEngineTest.run(new TreeWalkingEngine(), true, programs));
+    }
+}
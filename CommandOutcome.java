@@ -0,0 +1,50 @@
+package model;
+
+/**
+ * What one submitted command produced: the command itself, its return values or error message,
+ * and whether it failed. A result merged from several results keeps one outcome per command.
+ *
+ * @author agent
+ */
+public class CommandOutcome {
+
+    private String commandString;
+    private String returnString;
+    private boolean error;
+
+    /**
+     * Create the outcome of one command.
+     * @param commandString the original command string that the user submitted
+     * @param returnString the return values in string form (or could be an error message)
+     * @param error whether or not there was an error in command execution
+     */
+    public CommandOutcome(String commandString, String returnString, boolean error) {
+        this.commandString = commandString;
+        this.returnString = returnString;
+        this.error = error;
+    }
+
+    /**
+     * Gets the original submitted command.
+     * @return the original submitted command
+     */
+    public String getCommandString() {
+        return commandString;
+    }
+
+    /**
+     * Gets the return string (or error message) from command execution.
+     * @return the return string
+     */
+    public String getReturnString() {
+        return returnString;
+    }
+
+    /**
+     * Indicates whether there was an error in command execution.
+     * @return true if there was an error, false otherwise
+     */
+    public boolean isError() {
+        return error;
+    }
+}
@@ -1,18 +1,22 @@
 package model;
 
 import model.command.Command;
+import model.command.CommandKind;
 import model.command.Error;
 import model.command.ValueCommand;
+import model.command.control.ChargedBody;
 import model.command.control.UserCommand;
-import model.command.control.group.ListBody;
 
-import java.lang.reflect.Constructor;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.AbstractMap;
 import java.util.Collections;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 /**
@@ -26,14 +30,6 @@ import java.util.regex.Pattern;
 public class CommandParser {
 
     public static final String WHITESPACE = "\\s+";
-    public static final String CONSTANT = "model.command.math.Constant";
-    public static final String VARIABLE = "model.command.control.Variable";
-    public static final String LIST_START = "model.command.control.group.ListStart";
-    public static final String GROUP_START = "model.command.control.group.GroupStart";
-    public static final String LIST_END = "model.command.control.group.ListEnd";
-    public static final String GROUP_END = "model.command.control.group.GroupEnd";
-    public static final String VALUE_COMMAND = "model.command.ValueCommand";
-    public static final String USER_COMMAND = "model.command.control.UserCommand";
     /**
      * Language paths.
      */
@@ -47,13 +43,15 @@ public class CommandParser {
     private List<Map.Entry<String, String>> errors;
     List<Map.Entry<String, Pattern>> translations;
     List<Map.Entry<String, Pattern>> commandTranslations;
+    private TokenClassifier classifier;
+    private String language;
 
     /**
      * Sets default language, initializes other parameters
      */
     public CommandParser(){
-        setLanguage("ENGLISH");
         commandTranslations = getPatterns(new String[] {TRANSLATION});
+        setLanguage("ENGLISH");
         commands = new ArrayList<>();
         addErrors();
     }
@@ -66,10 +64,29 @@ public class CommandParser {
     public List<Command> parse(String input, Model model) {
         this.model = model;
         this.commands = new ArrayList<>();
-        parseText(input);
+        try {
+            parseText(new Tokenizer(input), commands::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         return fillRoot();
     }
 
+    /**
+     * Parses a program straight from a reader, handing each top-level command tree to the consumer
+     * as soon as it is complete, so that it can run before the rest of the program has been read.
+     * @param input the reader with all potential commands, which the caller remains responsible for closing
+     * @param model current Model of the game
+     * @param roots receives each executable command tree in program order
+     * @throws IOException if reading the input fails
+     */
+    public void parse(Reader input, Model model, Consumer<Command> roots) throws IOException {
+        this.model = model;
+        var builder = new TreeBuilder(root -> roots.accept(SlotResolver.resolve(ChargedBody.wrapLoops(root))));
+        parseText(new Tokenizer(input), command -> builder.add(command, TreeBuilder.UNKNOWN_REMAINING));
+        builder.finish();
+    }
+
     /**
      * Set the parser's language based on indicated key in the language.properties file.
      * Always includes the Syntax language.
@@ -78,119 +95,95 @@ public class CommandParser {
     public void setLanguage(String languageKey) {
         String[] languages = {ResourceBundle.getBundle(LANGUAGE).getString(languageKey), SYNTAX};
         translations = getPatterns(languages);
+        classifier = new TokenClassifier(translations, commandTranslations);
+        language = languageKey;
+    }
+
+    /**
+     * Get the key of the language the parser is currently set to.
+     * @return the language key
+     */
+    public String getLanguage() {
+        return language;
     }
 
     /**
      * Based on parseText by @Robert Duvall
-     * Takes a generic command and parses it into an array of Command
+     * Takes a generic command and parses it into a sequence of Command
      * objects for execution.
      *
-     * @param input the generic command string
+     * @param tokens the generic command, split into tokens
+     * @param output receives the Command objects in order
      */
-
-    private void parseText (String input) {
-
-        var inputArray = input.split(WHITESPACE);
-        for (int i = 0; i < inputArray.length; i++){
-            String s = inputArray[i];
-            if (s.trim().length() <= 0) {
-                continue;
-            }
-            i = execute(s, i, inputArray);
+    private void parseText (Tokenizer tokens, Consumer<Command> output) throws IOException {
+        String s;
+        while ((s = tokens.next()) != null) {
+            output.accept(execute(s, tokens));
         }
     }
 
     /**
-     * Runs through all of the commands in the input array to determine the appropriate action
-     * and take it
+     * Determines what the current string translates to and takes the appropriate action
      * @param s current string to be analyzed
-     * @param i index through the command string
-     * @param inputArray array of the command strings
-     * @return the updated index
+     * @param tokens the remaining strings, for commands that take the following string as their value
+     * @return the Command object for the string
      */
-    private int execute(String s, int i, String[] inputArray) {
-        try {
-            i = addCommand(getCommand(s), s, i, inputArray);
-        } catch (Exception first) {
-            try {
-                i = addCommand(addUserCommand(s), s, i, inputArray);
-            } catch (Exception second) {
-                commands.add(new Error(String.format(getError("CommandNotFound"), s)));
-                System.err.println(first + " " + second);
-            }
+    private Command execute(String s, Tokenizer tokens) throws IOException {
+        var path = classifier.classify(s);
+        Command command = path.isEmpty() ? null : CommandRegistry.create(path);
+        if (command == null && this.model.getUserInstructions().containsKey(s)) {
+            command = addUserCommand(s);
         }
-        return i;
+        if (command == null) {
+            return new Error(String.format(getError("CommandNotFound"), s));
+        }
+        return addCommand(command, s, tokens);
     }
 
     /**
      * @param command the command we are working on now
      * @param s current string
-     * @param i current index through the array
-     * @param inputArray array of strings inputted
-     * @return updated index
+     * @param tokens the remaining strings
+     * @return the filled in command
      */
-    private int addCommand(Command command, String s, int i, String[] inputArray) {
-        if(command.getClass().getName().equals(CONSTANT)) {
+    private Command addCommand(Command command, String s, Tokenizer tokens) throws IOException {
+        if(command.getKind() == CommandKind.CONSTANT) {
             ((ValueCommand) command).setValue(Double.parseDouble(s)); }
-        else if (command.getClass().getName().equals(VARIABLE)) {
+        else if (command.getKind() == CommandKind.VARIABLE) {
             ((ValueCommand) command).setValue(s); }
-        else if (command.getClass().getSuperclass().getName().equals(VALUE_COMMAND)) {
-            i++;
-            s = inputArray[i];
-            if (checkExisting(s)) {
-                command = new Error(String.format(getError("ExistingCommand"), s));
-                i = inputArray.length;
-            } else { ((ValueCommand) command).setValue(s); }
+        else if (command.getKind() == CommandKind.VALUE) {
+            var name = tokens.next();
+            if (name == null) {
+                return new Error(String.format(getError("CommandNotFound"), s));
+            }
+            if (checkExisting(name)) {
+                command = new Error(String.format(getError("ExistingCommand"), name));
+                tokens.stop();
+            } else { ((ValueCommand) command).setValue(name); }
         }
-        this.commands.add(command);
-        return i;
+        return command;
     }
 
     /**
      *
-     * @param s user command title
+     * @param s user command title, which must exist in the model's user instructions
      * @return Filled in user command
-     * @throws Exception if user command does not exist
      */
-    private Command addUserCommand(String s) throws Exception {
-        Command[] userCommand = retrieveUserCommand(s);
+    private Command addUserCommand(String s) {
+        Command[] userCommand = this.model.getUserInstructions().get(s);
         UserCommand command = new UserCommand();
+        command.setName(s);
         command.addParameter(userCommand[0]);
         command.addParameter(userCommand[1]);
         return command;
     }
 
-    /**
-     *
-     * @param text command to find in user command list
-     * @return the pair of params for the user commmand
-     * @throws Exception if there is no corresponding user command
-     */
-    private Command[] retrieveUserCommand(String text) throws Exception {
-        if(this.model.getUserInstructions().containsKey(text)) {
-            return this.model.getUserInstructions().get(text);
-        }
-        throw new Exception("Command " + text + " not found");
-    }
-
-    /**
-     * Uses reflection to change the incoming string into a Command object
-     * @param s Incoming string
-     * @return Command object
-     * @throws Exception if the string doesn't translate into a command
-     */
-    private Command getCommand(String s) throws Exception {
-        Class c = Class.forName("model.command." + this.getSymbol(this.getSymbol(s, translations), commandTranslations));
-        Constructor ct = c.getConstructor();
-        return (Command) ct.newInstance();
-    }
-
     /**
      * @param s prospective user command
      * @return whether or not the user command is going to overwrite an existing command
      */
     private boolean checkExisting(String s) {
-        return this.getSymbol(this.getSymbol(s, translations), commandTranslations) != "" || !this.getSymbol(this.getSymbol(s, translations), commandTranslations).equals("");
+        return !classifier.classify(s).isEmpty();
     }
 
     /**
@@ -232,21 +225,6 @@ public class CommandParser {
         return translations;
     }
 
-    /**
-     * Based on getSymbol by @Author: Robert Duvall
-     * @param text command from User
-     * @param translations the set of translations to compare the key against
-     * @return The command as a recognizable string
-     */
-    private String getSymbol(String text, List<Map.Entry<String, Pattern>> translations) {
-        for (var e : translations) {
-            if (match(text, e.getValue())) {
-                return e.getKey();
-            }
-        }
-        return "";
-    }
-
     /**
      * Translates error key into a readable string
      * @param text key to an error
@@ -262,95 +240,18 @@ public class CommandParser {
     }
 
     /**
-     * Method that increments through the command list and calls on the
-     * builder method to continue building the tree.
-     * @return
-     */
-    private Command getCommandTree() {
-        var command = this.commands.get(0);
-        var comSize = commands.size();
-        commands = commands.subList(1, comSize);
-        return builder(command);
-    }
-
-    /**
-     * Filters the type of command.
-     * @param command next Command to build on
-     * @return the update Command
-     */
-    private Command builder(Command command) {
-        if (command.getArgCount() == 0) {
-            return command; }
-        else if (command.getClass().getName().equals(USER_COMMAND)) {
-            return createUserCommand(command); }
-        else if (command.getClass().getName().equals(LIST_START)) {
-            return groupBuilder(new ListBody(), LIST_END); }
-        else if (command.getClass().getName().equals(GROUP_START)) {
-            command = this.commands.get(0);
-            this.commands = this.commands.subList(1, this.commands.size());
-            return groupBuilder(command, GROUP_END); }
-        else if (this.commands.size() < command.getArgCount()) {
-            return new Error("Not enough parameters for command " + command.toString()); }
-        else {
-            for (int i = 0; i < command.getArgCount(); i++) {
-                command.addParameter(getCommandTree());
-            }
-            return command;
-        }
-    }
-
-    /**
-     * For the Group objects, there is a slightly different method for building t
-     * the command tree. This method addresses those differences
-     * @param command The command that is going to be build on
-     * @param end determines which type of Group element the groupBuilder needs
-     *            to look for
-     * @return The new command with a command tree of parameters
-     */
-    private Command groupBuilder(Command command, String end) {
-        while(!this.commands.get(0).getClass().getName().equals(end)){
-            command.addParameter(getCommandTree());
-        }
-        this.commands = this.commands.subList(1, commands.size());
-        return command;
-    }
-
-    /**
-     * If the user is trying to create their own command, this method parses it.
-     * @param command is the Command object that is a user command
-     * @return the updated UserCommand that has correctly filled it's parameters
-     */
-    private Command createUserCommand(Command command) {
-        int count = command.getParameters().get(0).getParameters().size();
-        var param = new ListBody();
-        while(count > 0) {
-            param.addParameter(getCommandTree());
-            count--;
-        }
-        command.addParameter(param);
-        return command;
-    }
-
-    /**
-     * Fills the list of commands while there are still commands to add
+     * Walks the list of commands with a cursor, building the command trees in a single pass
      * @return the new list Commands to be executed by the Controller
      */
     private ArrayList<Command> fillRoot() {
         var rootList = new ArrayList<Command>();
-        while(!commands.isEmpty()) {
-            rootList.add(getCommandTree());
+        var builder = new TreeBuilder(root -> rootList.add(SlotResolver.resolve(ChargedBody.wrapLoops(root))));
+        int size = commands.size();
+        for (int cursor = 0; cursor < size; cursor++) {
+            builder.add(commands.get(cursor), size - cursor - 1);
         }
+        builder.finish();
         return rootList;
     }
 
-    /**
-     * From file by @Robert Duvall
-     * @param text text to check against
-     * @param regex pattern to compare to
-     * @return whether or not the text matches the given pattern
-     */
-    private boolean match (String text, Pattern regex) {
-        return regex.matcher(text).matches();
-    }
-
 }
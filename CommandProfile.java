@@ -0,0 +1,58 @@
+package model;
+
+/**
+ * The time and memory spent in one kind of command, or in one user command, while profiling.
+ * Self time and self allocation leave out what the command's parameters and body used.
+ *
+ * @author agent
+ */
+public class CommandProfile {
+
+    private String name;
+    private long calls;
+    private long totalNanos;
+    private long selfNanos;
+    private long allocatedBytes;
+
+    /**
+     * Create a profile entry.
+     * @param name the command's class name, or the user command's name
+     * @param calls the number of times the command ran
+     * @param totalNanos the time spent in the command, including its parameters and body
+     * @param selfNanos the time spent in the command itself
+     * @param allocatedBytes the bytes allocated by the command itself
+     */
+    public CommandProfile(String name, long calls, long totalNanos, long selfNanos, long allocatedBytes) {
+        this.name = name;
+        this.calls = calls;
+        this.totalNanos = totalNanos;
+        this.selfNanos = selfNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getSelfNanos() {
+        return selfNanos;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d calls, %.3f ms self, %.3f ms total, %d bytes", name, calls,
+                selfNanos / 1e6, totalNanos / 1e6, allocatedBytes);
+    }
+}
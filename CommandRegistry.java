@@ -0,0 +1,75 @@
+package model;
+
+import model.command.Command;
+
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of factories for every command listed in the Translation resource file.
+ * A command's factory is generated from its no-argument constructor the first time the command is created,
+ * so start-up only reads the list of paths and commands a program never uses cost nothing. Creating a
+ * command afterwards is a hash lookup and a plain constructor call, with no reflection.
+ * Every tab shares the same registry.
+ *
+ * @author agent
+ */
+public class CommandRegistry {
+
+    public static final String COMMAND_PACKAGE = "model.command.";
+
+    private static final Set<String> PATHS = ResourceBundle.getBundle(CommandParser.TRANSLATION).keySet();
+    private static final Map<String, Supplier<Command>> FACTORIES = new ConcurrentHashMap<>();
+
+    private CommandRegistry() {
+    }
+
+    /**
+     * Creates a new command from its path.
+     * @param path the command path relative to the command package, as listed in the Translation file
+     * @return the new command, or null if there is no command with that path
+     */
+    public static Command create(String path) {
+        if (!PATHS.contains(path)) {
+            return null;
+        }
+        return FACTORIES.computeIfAbsent(path, CommandRegistry::load).get();
+    }
+
+    private static Supplier<Command> load(String path) {
+        try {
+            return factory(Class.forName(COMMAND_PACKAGE + path));
+        } catch (ReflectiveOperationException | LambdaConversionException e) {
+            throw new IllegalStateException("Cannot create a factory for command " + path, e);
+        }
+    }
+
+    /**
+     * Generates a supplier that calls the no-argument constructor of the given command class directly.
+     * A command listed in the Translation file without an accessible no-argument constructor is a packaging
+     * error, so it is reported rather than skipped.
+     */
+    @SuppressWarnings("unchecked")
+    private static Supplier<Command> factory(Class<?> type) throws ReflectiveOperationException,
+            LambdaConversionException {
+        var lookup = MethodHandles.lookup();
+        var constructor = lookup.findConstructor(type, MethodType.methodType(void.class));
+        var site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+                MethodType.methodType(Object.class), constructor, MethodType.methodType(type));
+        try {
+            return (Supplier<Command>) site.getTarget().invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // The target only returns the already linked supplier, so it declares Throwable without throwing it
+            throw new IllegalStateException("Cannot create a factory for " + type.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package model;
+
+/**
+ * A command tree lowered into a closure, with its children and arity fixed when it was compiled.
+ *
+ * @author agent
+ */
+@FunctionalInterface
+public interface CompiledCommand {
+
+    /**
+     * Executes the compiled command on the model.
+     * @param model the model on which to execute the command
+     * @return the result of the command's execution
+     */
+    double execute(Model model);
+}
@@ -0,0 +1,57 @@
+package model;
+
+import model.command.Command;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Execution engine that compiles each command tree into closures the first time it runs,
+ * and reuses the compiled form for the most recently run trees, such as the ones kept by the parsed tree cache.
+ * Commands are compared by identity, and compiled forms capture the nodes they fall back to, so the cache is
+ * bounded rather than weak: a tree that is no longer run is dropped once enough newer trees have been compiled.
+ *
+ * @author agent
+ */
+public class CompilingEngine implements ExecutionEngine {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private CommandCompiler compiler;
+    private Map<Command, CompiledCommand> compiled;
+
+    /**
+     * Create a compiling engine with the default compiler.
+     */
+    public CompilingEngine() {
+        this(new CommandCompiler());
+    }
+
+    /**
+     * Create a compiling engine.
+     * @param compiler the compiler used to lower command trees
+     */
+    public CompilingEngine(CommandCompiler compiler) {
+        this(compiler, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a compiling engine that keeps the compiled forms of at most the given number of trees.
+     * @param compiler the compiler used to lower command trees
+     * @param capacity the maximum number of compiled trees kept
+     */
+    public CompilingEngine(CommandCompiler compiler, int capacity) {
+        this.compiler = compiler;
+        compiled = new LinkedHashMap<>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Command, CompiledCommand> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public double execute(Command root, Model model) {
+        return compiled.computeIfAbsent(root, compiler::compile).execute(model);
+    }
+}
@@ -0,0 +1,103 @@
+package model;
+
+import model.command.Command;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures executing parsed loop-heavy, motion-only, user-command-heavy and recursion-shaped programs with each
+ * execution engine, with and without the optimizer, at up to 10^6 iterations.
+ * Every invocation starts from a fresh model, so no invocation sees the variables or turtle that earlier ones
+ * left behind. Resetting per invocation costs JMH a pair of timer reads, which is small next to the smallest
+ * program here.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class ExecuteBenchmark {
+
+    private static final String TREE_WALKING = "treeWalking";
+    private static final int RECURSION_DEPTH = 12;
+
+    @Param({"1000", "100000", "1000000"})
+    private int iterations;
+
+    @Param({TREE_WALKING, "compiling"})
+    private String engineName;
+
+    @Param({"false", "true"})
+    private boolean optimize;
+
+    private ExecutionEngine engine;
+    private Model model;
+    private List<Command> loop;
+    private List<Command> motion;
+    private List<Command> calls;
+    private List<Command> recursion;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var generator = new ProgramGenerator();
+        var parser = new CommandParser();
+        model = new Model();
+        engine = engineName.equals(TREE_WALKING) ? new TreeWalkingEngine() : new CompilingEngine();
+        run(parser.parse(generator.userCommandDefinition(), model));
+        loop = prepare(parser.parse(generator.loop(iterations), model));
+        motion = prepare(parser.parse(generator.motion(iterations), model));
+        calls = prepare(parser.parse(generator.userCommandCalls(iterations), model));
+        run(parser.parse(generator.recursiveDefinitions(RECURSION_DEPTH), model));
+        recursion = prepare(parser.parse(generator.recursiveCall(RECURSION_DEPTH), model));
+    }
+
+    // The parsed trees hold the user command bodies themselves, so they run the same against a fresh model
+    @Setup(Level.Invocation)
+    public void resetModel() {
+        model = new Model();
+    }
+
+    @Benchmark
+    public double executeLoop() {
+        return run(loop);
+    }
+
+    @Benchmark
+    public double executeMotion() {
+        return run(motion);
+    }
+
+    @Benchmark
+    public double executeUserCommandCalls() {
+        return run(calls);
+    }
+
+    @Benchmark
+    public double executeRecursion() {
+        return run(recursion);
+    }
+
+    private List<Command> prepare(List<Command> roots) {
+        return optimize ? new CommandOptimizer().optimize(roots, model) : roots;
+    }
+
+    private double run(List<Command> roots) {
+        double returnValue = 0;
+        for (Command c : roots) {
+            returnValue = engine.execute(c, model);
+        }
+        return returnValue;
+    }
+}
@@ -0,0 +1,189 @@
+package model.command;
+
+import java.util.ArrayDeque;
+
+/**
+ * Limits how long a command may run. Loops charge the size of their body on every iteration, user
+ * commands charge the size of their body on every call and turtle commands charge one instruction per active
+ * turtle, which approximates the number of command nodes executed. Loops that do not charge the budget
+ * themselves have their bodies wrapped in a ChargedBody by the parser. The charge is checked against an
+ * instruction limit, a time limit and a cancellation flag, and once any of them is hit a CommandException
+ * stops execution cleanly.
+ * A budget can also report progress: every so often, from inside the running command, it calls a listener,
+ * which can publish what the command has drawn so far before execution continues.
+ * Spending is on the path of every loop iteration and call, so it stays cheap: the shared budget in force when
+ * none was entered does nothing at all, and the clock is only read once every CLOCK_CHECK_INSTRUCTIONS
+ * instructions, and only if there is a time limit or a progress listener.
+ * The budget in force is per thread, so each model running on its own thread has its own budget.
+ *
+ * @author agent
+ */
+public class ExecutionBudget {
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    public static final long CLOCK_CHECK_INSTRUCTIONS = 1024;
+
+    private static final String CANCELLED = "Execution was cancelled";
+    private static final String EXHAUSTED = "Execution ran out of its instruction or time budget";
+    private static final long NANOS_PER_MILLI = 1_000_000;
+    private static final ExecutionBudget NONE = new ExecutionBudget(UNLIMITED, UNLIMITED);
+    private static final ThreadLocal<ExecutionBudget> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    private long instructionLimit;
+    private long timeLimit;
+    private long progressInterval;
+    private Runnable progress;
+    private long executed;
+    private long deadline;
+    private long nextProgress;
+    private boolean clocked;
+    private long nextClockCheck;
+    private boolean stopped;
+    private volatile boolean cancelled;
+
+    /**
+     * Create a budget.
+     * @param instructionLimit the number of command nodes a command may execute, or UNLIMITED
+     * @param timeLimitMillis the number of milliseconds a command may run, or UNLIMITED
+     */
+    public ExecutionBudget(long instructionLimit, long timeLimitMillis) {
+        this.instructionLimit = instructionLimit;
+        timeLimit = timeLimitMillis == UNLIMITED ? UNLIMITED : timeLimitMillis * NANOS_PER_MILLI;
+        progressInterval = UNLIMITED;
+        deadline = UNLIMITED;
+        nextProgress = UNLIMITED;
+    }
+
+    /**
+     * Calls a listener every so often while a command runs under this budget.
+     * @param intervalMillis the number of milliseconds between calls, or UNLIMITED to stop calling it
+     * @param listener called on the thread running the command
+     */
+    public void setProgressListener(long intervalMillis, Runnable listener) {
+        progressInterval = intervalMillis == UNLIMITED ? UNLIMITED : intervalMillis * NANOS_PER_MILLI;
+        progress = listener;
+    }
+
+    /**
+     * Puts this budget in force on the current thread, with its instructions and time starting from zero.
+     */
+    public void enter() {
+        long now = System.nanoTime();
+        executed = 0;
+        deadline = timeLimit == UNLIMITED ? UNLIMITED : now + timeLimit;
+        nextProgress = progressInterval == UNLIMITED ? UNLIMITED : now + progressInterval;
+        clocked = deadline != UNLIMITED || nextProgress != UNLIMITED;
+        nextClockCheck = CLOCK_CHECK_INSTRUCTIONS;
+        CURRENT.set(this);
+    }
+
+    /**
+     * Takes this budget out of force on the current thread.
+     */
+    public void exit() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Stops the command running under this budget at its next loop iteration or call, or the next command to run
+     * under it if none is running yet. Safe to call from any thread.
+     */
+    public void cancel() {
+        if (this != NONE) {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Withdraws a cancellation that has not stopped a command yet, once there is no command left for it to stop.
+     * Safe to call from any thread.
+     */
+    public void withdrawCancel() {
+        cancelled = false;
+    }
+
+    /**
+     * Clears a stop, so the budget can be used for the next command. A cancellation that has not stopped a
+     * command yet is kept, so a cancel that arrives while the command is still queued stops it as it starts.
+     */
+    public void reset() {
+        stopped = false;
+    }
+
+    /**
+     * @return true if the budget stopped a command because it was cancelled or ran out, until it is reset
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Charges instructions against the budget.
+     * @param instructions the number of command nodes about to be executed
+     * @throws CommandException if the budget was cancelled or has run out
+     */
+    public void spend(long instructions) {
+        if (this == NONE) {
+            return;
+        }
+        executed += instructions;
+        if (cancelled || stopped || executed > instructionLimit) {
+            stop();
+        }
+        if (!clocked || executed < nextClockCheck) {
+            return;
+        }
+        nextClockCheck = executed + CLOCK_CHECK_INSTRUCTIONS;
+        long now = System.nanoTime();
+        if (now > deadline) {
+            stop();
+        }
+        if (now >= nextProgress) {
+            nextProgress = now + progressInterval;
+            progress.run();
+        }
+    }
+
+    // A cancellation is used up by the command it stops
+    private void stop() {
+        boolean wasCancelled = cancelled;
+        cancelled = false;
+        stopped = true;
+        throw new CommandException(wasCancelled ? CANCELLED : EXHAUSTED);
+    }
+
+    /**
+     * Gets the budget in force on the current thread, for loops that charge it on every iteration.
+     * @return the budget, which never runs out if none was entered
+     */
+    public static ExecutionBudget current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Charges instructions against the budget in force on the current thread.
+     * @param instructions the number of command nodes about to be executed
+     * @throws CommandException if the budget was cancelled or has run out
+     */
+    public static void charge(long instructions) {
+        CURRENT.get().spend(instructions);
+    }
+
+    /**
+     * Counts the command nodes in a tree, which is what one execution of it is charged.
+     * @param command the root of the tree
+     * @return the number of nodes in the tree
+     */
+    public static int size(Command command) {
+        int size = 0;
+        var pending = new ArrayDeque<Command>();
+        pending.push(command);
+        while (!pending.isEmpty()) {
+            size++;
+            for (Command c : pending.pop().getParameters()) {
+                pending.push(c);
+            }
+        }
+        return size;
+    }
+}
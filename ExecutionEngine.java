@@ -0,0 +1,20 @@
+package model;
+
+import model.command.Command;
+
+/**
+ * Strategy for executing a parsed command tree on a model.
+ * Every engine must give the same results as calling {@link Command#execute(Model)} on the root.
+ *
+ * @author agent
+ */
+public interface ExecutionEngine {
+
+    /**
+     * Executes the command tree on the model.
+     * @param root the root of the command tree
+     * @param model the model on which to execute the command
+     * @return the result of the command's execution
+     */
+    double execute(Command root, Model model);
+}
@@ -0,0 +1,89 @@
+package model;
+
+import model.command.Command;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that compiled trees leave the model exactly as walking the same trees does, for every kind of
+ * program the benchmarks generate, user command calls included.
+ *
+ * @author agent
+ */
+public class ExecutionEngineTest {
+
+    private static final int RECURSION_DEPTH = 6;
+    private static final String CREATE_TURTLE = "ct";
+
+    @Test
+    public void compiledLoopsMatchTreeWalking() {
+        var generator = new ProgramGenerator();
+        assertSameEverywhere(generator.loop(200), generator.trail(100));
+    }
+
+    @Test
+    public void compiledFlatAndNestedProgramsMatchTreeWalking() {
+        var generator = new ProgramGenerator();
+        assertSameEverywhere(generator.flat(500), generator.nested(50), generator.variables(20));
+    }
+
+    @Test
+    public void compiledUserCommandCallsMatchTreeWalking() {
+        var generator = new ProgramGenerator();
+        assertSameEverywhere(generator.userCommandDefinition(), generator.userCommandCalls(50));
+    }
+
+    @Test
+    public void compiledRecursionShapedCallsMatchTreeWalking() {
+        var generator = new ProgramGenerator();
+        assertSameEverywhere(generator.recursiveDefinitions(RECURSION_DEPTH), generator.recursiveCall(RECURSION_DEPTH));
+    }
+
+    private void assertSameEverywhere(String... programs) {
+        assertEquals(run(new TreeWalkingEngine(), false, programs), run(new CompilingEngine(), false, programs));
+    }
+
+    /**
+     * Runs programs one after another on a new model once its first turtle is created, parsing each only once
+     * the one before it has run, since user command calls are resolved while parsing.
+     * @param engine the engine to execute the trees with
+     * @param optimize whether to optimize each program's trees before executing them
+     * @param programs the programs to run
+     * @return every return value followed by the variables and turtles the programs left behind
+     */
+    static String run(ExecutionEngine engine, boolean optimize, String... programs) {
+        var model = new Model();
+        var parser = new CommandParser();
+        var optimizer = new CommandOptimizer();
+        var returns = new ArrayList<Double>();
+        for (Command root : parser.parse(CREATE_TURTLE, model)) {
+            engine.execute(root, model);
+        }
+        for (String program : programs) {
+            List<Command> roots = parser.parse(program, model);
+            if (optimize) {
+                roots = optimizer.optimize(roots, model);
+            }
+            for (Command root : roots) {
+                returns.add(engine.execute(root, model));
+            }
+        }
+        return describe(returns, model);
+    }
+
+    private static String describe(List<Double> returns, Model model) {
+        var description = new StringBuilder().append(returns).append('\n');
+        description.append(new TreeMap<>(model.getVariables())).append('\n');
+        for (var entry : new TreeMap<>(model.getTurtles().getImmutableTurtles()).entrySet()) {
+            var turtle = entry.getValue();
+            description.append(String.format("turtle %d at %s %s heading %s, %d trail lines%n", entry.getKey(),
+                    turtle.getX(), turtle.getY(), turtle.getHeading(), turtle.getTrail().size()));
+        }
+        return description.toString();
+    }
+}
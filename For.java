@@ -2,7 +2,8 @@ package model.command.control;
 
 import model.Model;
 import model.command.Command;
-import model.command.Error;
+import model.command.CommandException;
+import model.command.ExecutionBudget;
 import model.command.ValueCommand;
 
 import java.util.List;
@@ -21,6 +22,8 @@ public class For extends Command {
     private static final int END_LOCATION = 2;
     private static final int INCREMENT_LOCATION = 3;
 
+    private int bodySize = -1;
+
     public For() {
         super();
         argCount = ARG_COUNT;
@@ -30,20 +33,56 @@ public class For extends Command {
     public double execute(Model model) {
         List<Command> firstGroup = parameters.get(0).getParameters();
         if (firstGroup.size() != FIRST_GROUP_LENGTH || !(firstGroup.get(0) instanceof ValueCommand)) {
-            parameters.add(new Error(ResourceBundle.getBundle("Error").getString("MalformedForFirstGroup")));
-            return 0;
+            throw new CommandException(ResourceBundle.getBundle("Error").getString("MalformedForFirstGroup"));
         }
-        String variableName = ((ValueCommand<String>) firstGroup.get(0)).getValue();
+        var counter = firstGroup.get(0);
         double start = firstGroup.get(START_LOCATION).execute(model);
         double end = firstGroup.get(END_LOCATION).execute(model);
         double increment = firstGroup.get(INCREMENT_LOCATION).execute(model);
 
+        if (bodySize < 0) {
+            bodySize = ExecutionBudget.size(parameters.get(1));
+        }
+        var budget = ExecutionBudget.current();
         double returnValue = 0;
         for (double i = start; i <= end; i += increment) {
-            model.getVariables().put(variableName, i);
+            budget.spend(bodySize);
+            assign(model, counter, i);
             returnValue = parameters.get(1).execute(model);
         }
+        if (start <= end) {
+            finish(model, counter, counter.execute(model));
+        }
         return returnValue;
     }
 
+    /**
+     * Sets a loop counter for the next iteration: its slot if it was resolved to one, otherwise the model's
+     * variable of that name.
+     * @param model the model the loop runs on
+     * @param counter the loop's counter, a LocalVariable or the Variable the parser made
+     * @param value the counter's value for the iteration
+     */
+    public static void assign(Model model, Command counter, double value) {
+        if (counter instanceof LocalVariable) {
+            ((LocalVariable) counter).set(value);
+        } else {
+            model.getVariables().put(((ValueCommand<String>) counter).getValue(), value);
+        }
+    }
+
+    /**
+     * Leaves the counter's final value in the model's variables once a loop that ran is over, as the counter
+     * always did before it had a slot, so it shows up among the variables. A counter sharing the slot of a
+     * user command parameter stays in the call's scope.
+     * @param model the model the loop ran on
+     * @param counter the loop's counter
+     * @param last the counter's value once the last iteration is over
+     */
+    public static void finish(Model model, Command counter, double last) {
+        if (!(counter instanceof LocalVariable) || !((LocalVariable) counter).isParameter()) {
+            model.getVariables().put(((ValueCommand<String>) counter).getValue(), last);
+        }
+    }
+
 }
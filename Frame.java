@@ -0,0 +1,112 @@
+package model.command.control;
+
+import java.util.Arrays;
+
+/**
+ * The variables of one scope, resolved to slots in a {@code double[]} when the program is parsed: the parameters
+ * of a user command body, which take the first slots, and the counters of the for loops inside it.
+ * A tree run at the top level has a frame whose slots live as long as the tree. A user command body has a frame
+ * that gets new slots for every call, so recursive calls each see their own values.
+ * The slots of the running call are held by the frame itself, so the commands reading and writing them only need
+ * the frame and their slot number, with no hashing or boxing.
+ *
+ * @author agent
+ */
+public class Frame {
+
+    private static final double[] NO_SLOTS = new double[0];
+
+    private int size;
+    private int parameterCount;
+    private boolean perCall;
+    private double[] slots;
+
+    private Frame(int parameterCount, boolean perCall) {
+        this.parameterCount = parameterCount;
+        this.perCall = perCall;
+        size = parameterCount;
+        slots = perCall ? NO_SLOTS : new double[size];
+    }
+
+    /**
+     * Create the frame of a tree run at the top level.
+     * @return the new frame, with no slots yet
+     */
+    public static Frame topLevel() {
+        return new Frame(0, false);
+    }
+
+    /**
+     * Create the frame of a user command body, which gets new slots for every call.
+     * @param parameterCount the number of parameters, which take the first slots
+     * @return the new frame, with a slot for each parameter
+     */
+    public static Frame perCall(int parameterCount) {
+        return new Frame(parameterCount, true);
+    }
+
+    /**
+     * Adds slots to the frame.
+     * @param count the number of slots to add
+     * @return the first of the new slots
+     */
+    public int reserve(int count) {
+        int first = size;
+        size += count;
+        if (!perCall) {
+            slots = Arrays.copyOf(slots, size);
+        }
+        return first;
+    }
+
+    /**
+     * @return the number of slots in the frame
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param slot a slot of this frame
+     * @return true if the slot holds one of the user command's parameters
+     */
+    public boolean isParameter(int slot) {
+        return slot < parameterCount;
+    }
+
+    /**
+     * @param slot a slot of this frame
+     * @return the value in the slot for the running call
+     */
+    public double get(int slot) {
+        return slots[slot];
+    }
+
+    /**
+     * Sets the value in a slot for the running call.
+     * @param slot a slot of this frame
+     * @param value the new value
+     */
+    public void set(int slot, double value) {
+        slots[slot] = value;
+    }
+
+    /**
+     * Makes the given slots the running call's, as a call does when it starts.
+     * @param values the slots of the new call, at least size() long
+     * @return the slots of the call that was running before, to pass to exit
+     */
+    public double[] enter(double[] values) {
+        var previous = slots;
+        slots = values;
+        return previous;
+    }
+
+    /**
+     * Ends the running call, making the slots of the call before it the running ones again.
+     * @param previous the slots returned by enter
+     */
+    public void exit(double[] previous) {
+        slots = previous;
+    }
+}
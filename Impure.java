@@ -0,0 +1,20 @@
+package model.command;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a math command that may give a different value for the same arguments, such as a random number,
+ * so the optimizer never folds or hoists it and the compiler never evaluates its arguments up front.
+ * Every other math command is taken to be pure.
+ *
+ * @author agent
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Impure {
+}
@@ -0,0 +1,54 @@
+package model.command.control;
+
+import model.Model;
+import model.command.Command;
+
+/**
+ * A loop-invariant expression hoisted out of a loop by the optimizer.
+ * The expression is evaluated the first time it is needed after its loop starts, and every later
+ * iteration reuses that value until the enclosing InvariantLoop starts the loop again.
+ * The value is kept in two slots of the loop's frame rather than in the node, since parsed trees are
+ * cached and shared: one for the value and one telling whether it has been evaluated in this run of the loop.
+ *
+ * @author agent
+ */
+public class Invariant extends Command {
+
+    private Frame frame;
+    private int slot;
+
+    /**
+     * Create an invariant for the given expression.
+     * @param expression the expression whose value does not change while the loop runs
+     */
+    public Invariant(Command expression) {
+        super();
+        addParameter(expression);
+        argCount = 1;
+    }
+
+    // Called by the loop the invariant was hoisted out of
+    void attach(Frame frame, int slot) {
+        this.frame = frame;
+        this.slot = slot;
+    }
+
+    /**
+     * @return the slot holding the invariant's value, followed by the slot telling whether it is evaluated
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    @Override
+    public double execute(Model model) {
+        if (frame == null) {
+            return parameters.get(0).execute(model);
+        }
+        if (frame.get(slot + 1) == 0) {
+            frame.set(slot, parameters.get(0).execute(model));
+            frame.set(slot + 1, 1);
+        }
+        return frame.get(slot);
+    }
+}
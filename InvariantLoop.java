@@ -0,0 +1,62 @@
+package model.command.control;
+
+import model.Model;
+import model.command.Command;
+
+import java.util.List;
+
+/**
+ * A loop whose invariant expressions were hoisted by the optimizer.
+ * The hoisted values are kept in slots reserved in the frame of the loop's counter, two for each invariant,
+ * so reading one is an array access. Each time the loop starts it clears them, so the values from a previous
+ * run of the same loop are never reused; a run inside a user command call gets the call's own slots.
+ *
+ * @author agent
+ */
+public class InvariantLoop extends Command {
+
+    private List<Invariant> invariants;
+    private Frame frame;
+    private int firstSlot;
+
+    /**
+     * Create an invariant loop.
+     * @param loop the loop itself
+     * @param invariants the expressions hoisted out of the loop's body
+     * @param frame the frame the loop's counter was resolved to, in which slots for the hoisted values are reserved
+     */
+    public InvariantLoop(Command loop, List<Invariant> invariants, Frame frame) {
+        super();
+        addParameter(loop);
+        argCount = 1;
+        this.invariants = List.copyOf(invariants);
+        this.frame = frame;
+        firstSlot = frame.reserve(2 * this.invariants.size());
+        for (int i = 0; i < this.invariants.size(); i++) {
+            this.invariants.get(i).attach(frame, firstSlot + 2 * i);
+        }
+    }
+
+    /**
+     * Get the expressions hoisted out of the loop, in the order their values are kept.
+     * @return the invariants
+     */
+    public List<Invariant> getInvariants() {
+        return invariants;
+    }
+
+    /**
+     * @return the frame holding the hoisted values
+     */
+    public Frame getFrame() {
+        return frame;
+    }
+
+    @Override
+    public double execute(Model model) {
+        for (int slot = firstSlot; slot < firstSlot + 2 * invariants.size(); slot += 2) {
+            frame.set(slot + 1, 0);
+        }
+        return parameters.get(0).execute(model);
+    }
+}
@@ -0,0 +1,64 @@
+package model.command.control;
+
+import model.Model;
+import model.command.ValueCommand;
+
+/**
+ * A variable resolved to a slot of its scope's frame when the program was parsed: a user command parameter,
+ * or a for loop counter inside the loop's body. It stands in for the Variable the parser made, and keeps its
+ * name as its value, so commands that only look at names treat both the same way.
+ *
+ * @author agent
+ */
+public class LocalVariable extends ValueCommand<String> {
+
+    private Frame frame;
+    private int slot;
+
+    /**
+     * Create a variable resolved to a slot.
+     * @param name the name of the variable
+     * @param frame the frame of the scope the variable belongs to
+     * @param slot the variable's slot in the frame
+     */
+    public LocalVariable(String name, Frame frame, int slot) {
+        super();
+        setValue(name);
+        this.frame = frame;
+        this.slot = slot;
+    }
+
+    @Override
+    public double execute(Model model) {
+        return frame.get(slot);
+    }
+
+    /**
+     * Assigns the variable for the running call.
+     * @param value the new value
+     */
+    public void set(double value) {
+        frame.set(slot, value);
+    }
+
+    /**
+     * @return the frame of the scope the variable belongs to
+     */
+    public Frame getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return the variable's slot in its frame
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return true if the variable is a user command parameter, false if it is a loop counter
+     */
+    public boolean isParameter() {
+        return frame.isParameter(slot);
+    }
+}
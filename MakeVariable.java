@@ -2,7 +2,7 @@ package model.command.control;
 
 import model.Model;
 import model.command.Command;
-import model.command.Error;
+import model.command.CommandException;
 import model.command.ValueCommand;
 
 import java.util.ResourceBundle;
@@ -24,12 +24,14 @@ public class MakeVariable extends Command {
     @Override
     public double execute(Model model) {
         if (!(this.parameters.get(0) instanceof ValueCommand)) {
-            parameters.add(new Error(ResourceBundle.getBundle("Error").getString("MalformedMakeVariable")));
-            return 0;
+            throw new CommandException(ResourceBundle.getBundle("Error").getString("MalformedMakeVariable"));
         }
-        var variable = ((ValueCommand<String>) this.parameters.get(0)).getValue();
         var value = this.parameters.get(1).execute(model);
-        model.getVariables().put(variable, value);
+        if (this.parameters.get(0) instanceof LocalVariable) {
+            ((LocalVariable) this.parameters.get(0)).set(value);
+        } else {
+            model.getVariables().put(((ValueCommand<String>) this.parameters.get(0)).getValue(), value);
+        }
         return value;
     }
 
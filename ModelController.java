@@ -1,23 +1,23 @@
 package model;
 
-import javafx.event.EventHandler;
-import javafx.scene.Node;
-import javafx.scene.shape.Rectangle;
-import model.Events.ResultEvent;
 import model.command.Command;
+import model.command.CommandException;
 import model.command.Error;
+import model.command.ExecutionBudget;
 
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.ResourceBundle;
-import java.util.Scanner;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * This main model controller class for executes commands passed to it from the
@@ -32,30 +32,61 @@ public class ModelController {
     private static final String SAVE_COMMAND_HISTORY = "saveCommandHistory";
     private static final String LOAD_COMMAND_HISTORY = "loadCommandHistory";
     private static final String CHANGE_LANGUAGE = "changeLanguage";
+    private static final int PROFILE_LIMIT = 20;
+    private static final int PARSED_TREE_CACHE_SIZE = 128;
+    private static final String TOO_DEEP = "Execution ran out of stack; the commands are nested or call each other too deeply";
 
     private Model model;
-    private Node node;
+    private List<Consumer<Result>> resultListeners;
+    private List<Consumer<CommandOutcome>> outcomeListeners;
     private List<String> commandHistory;
     private CommandParser parser;
+    private ParsedTreeCache parsedTrees;
+    private long userCommandGeneration;
+    private String executionError;
+    private ExecutionEngine engine;
+    private CommandOptimizer optimizer;
+    private boolean optimize;
+    private boolean showOptimizedTree;
+    private ResultTracker results;
+    private TrailRecorder trails;
+    private boolean turtlesChanged;
+    private boolean deltaResults;
+    private volatile ExecutionBudget budget;
+    private long progressInterval;
+    private String runningCommand;
+    private Profiler profiler;
+    private ExecutionEngine unprofiledEngine;
 
     /**
      * Create the model controller, initializing all relevant instance variables.
      */
     public ModelController() {
         model = new Model();
-        node = new Rectangle();
+        resultListeners = new CopyOnWriteArrayList<>();
+        outcomeListeners = new CopyOnWriteArrayList<>();
         commandHistory = new ArrayList<>();
         parser = new CommandParser();
+        parsedTrees = new ParsedTreeCache(PARSED_TREE_CACHE_SIZE);
+        engine = new TreeWalkingEngine();
+        optimizer = new CommandOptimizer();
+        results = new ResultTracker();
+        trails = new TrailRecorder();
+        turtlesChanged = true;
+        budget = new ExecutionBudget(ExecutionBudget.UNLIMITED, ExecutionBudget.UNLIMITED);
+        progressInterval = ExecutionBudget.UNLIMITED;
     }
 
     /**
      * Executes a given command string passed from the GUI.
-     * First it checks whether this is a special command for loading/saving command history
-     * or setting the language. If so, it processes those in certain ways and sets no return string.
-     * Otherwise, it uses the command parser to get a list of command roots.
+     * First it checks whether this is a special command for loading/saving command history or setting
+     * the language.
+     * If so, it processes those in certain ways and sets no return string.
+     * Otherwise, it uses the command parser to get a list of command roots, reusing the trees from an earlier
+     * submission of the same string when neither the language nor the user commands have changed since.
      * It then loops through those roots and traverses the trees, executing commands and getting the return string.
      * It also loops through the trees again to check for errors.
-     * Lastly, it fires a ResultEvent with a Result object that has all the necessary data from the model
+     * Lastly, it passes the result listeners a Result object that has all the necessary data from the model
      * packaged up nicely and immutably for the front end to update its display.
      *
      * @param command the unprocessed command from the GUI
@@ -75,45 +106,338 @@ public class ModelController {
         }
 
         commandHistory.add(command);
-        var commandRoots = parser.parse(command, model);
-        fireResult(new String[] {command, generateReturn(commandRoots), commandTreeContainsError(commandRoots)});
+        budget.reset();
+        runningCommand = command;
+        var parseEvent = new PhaseEvent.Parse();
+        parseEvent.begin();
+        var parsed = parse(command);
+        var commandRoots = parsed.getRoots();
+        parseEvent.commit(command);
+        turtlesChanged |= parsed.touchesTurtles();
+        var executeEvent = new PhaseEvent.Execute();
+        executeEvent.begin();
+        String returnString = generateReturn(commandRoots) + describe(commandRoots);
+        String error = findError(commandRoots);
+        executeEvent.commit(command);
+        if (parsed.definesUserCommands()) {
+            userCommandGeneration++;
+        }
+        fireResult(new String[] {command, returnString, error});
+    }
+
+    /**
+     * Turns the optimizer on or off. When it is on, constant math is folded, branches that can never run
+     * are pruned and loop invariants are hoisted before a command is executed.
+     *
+     * @param optimize whether to optimize command trees before executing them
+     * @param showOptimizedTree whether to append the optimized trees to each return string, for checking them
+     */
+    public void setOptimization(boolean optimize, boolean showOptimizedTree) {
+        this.optimize = optimize;
+        this.showOptimizedTree = optimize && showOptimizedTree;
+    }
+
+    /**
+     * Turns the profiler on or off. While it is on, commands run on an instrumented form of the engine in use,
+     * which records the calls, self and total time, and allocations of every command class and user command,
+     * and each result carries the hottest ones. A CompilingEngine is profiled by compiling with a
+     * ProfilingCompiler, and any other engine through a ProfilingEngine, which puts probes into the trees
+     * themselves, so parsed trees are not cached while profiling. Turning it on starts from an empty profile;
+     * turning it off goes back to the engine that was in use before, which has no instrumentation at all.
+     *
+     * @param profiling whether to profile commands as they execute
+     */
+    public void setProfiling(boolean profiling) {
+        if (profiling && profiler == null) {
+            profiler = new Profiler();
+            unprofiledEngine = engine;
+            engine = profiled(engine);
+        } else if (!profiling && profiler != null) {
+            profiler = null;
+            engine = unprofiledEngine;
+        }
+    }
+
+    private ExecutionEngine profiled(ExecutionEngine unprofiled) {
+        if (unprofiled instanceof CompilingEngine) {
+            return new CompilingEngine(new ProfilingCompiler(profiler));
+        }
+        return new ProfilingEngine(unprofiled, profiler);
+    }
+
+    /**
+     * Limits how much each submitted command may execute. A command that runs out stops with an error,
+     * and the commands after it in the same submission are not run.
+     *
+     * @param instructionLimit the number of command nodes a command may execute, or ExecutionBudget.UNLIMITED
+     * @param timeLimitMillis the number of milliseconds a command may run, or ExecutionBudget.UNLIMITED
+     */
+    public void setExecutionBudget(long instructionLimit, long timeLimitMillis) {
+        var newBudget = new ExecutionBudget(instructionLimit, timeLimitMillis);
+        newBudget.setProgressListener(progressInterval, this::publishProgress);
+        budget = newBudget;
+    }
+
+    /**
+     * Publishes a result every so often while a long command runs, so the display can show the drawing so far.
+     *
+     * @param intervalMillis the number of milliseconds between progress results, or ExecutionBudget.UNLIMITED for none
+     */
+    public void setProgressInterval(long intervalMillis) {
+        progressInterval = intervalMillis;
+        budget.setProgressListener(intervalMillis, this::publishProgress);
+    }
+
+    /**
+     * Stops the command that is running at its next loop iteration, user command call or turtle command, or the
+     * next command to run if none is running yet. Safe to call from any thread.
+     */
+    public void cancel() {
+        budget.cancel();
+    }
+
+    /**
+     * Withdraws a cancel that has not stopped a command yet, for when there is no command left for it to stop.
+     * Safe to call from any thread.
+     */
+    public void withdrawCancel() {
+        budget.withdrawCancel();
+    }
+
+    /**
+     * Publishes an error result for a command that failed with an exception outside the command language,
+     * so the failure shows up where the command's result would have.
+     *
+     * @param command the command that failed
+     * @param failure the exception it failed with
+     */
+    public void publishFailure(String command, RuntimeException failure) {
+        fireResult(new String[] {command, "", new Error(failure.toString()).toString()});
+    }
+
+    // The running command may still change turtles after this result, so they stay marked as changed; its
+    // outcome comes with the result published when it finishes, so this one carries none
+    private void publishProgress() {
+        boolean running = turtlesChanged;
+        publishResult(null, "", false);
+        turtlesChanged = running;
+    }
+
+    // User command calls are resolved while parsing, so cached trees are only valid for one generation of
+    // definitions; the generation moves on after any command that can define a user command has run
+    private ParsedTreeCache.Entry parse(String command) {
+        if (engine instanceof ProfilingEngine) {
+            var commandRoots = parser.parse(command, model);
+            return ParsedTreeCache.uncached(optimize ? optimizer.optimize(commandRoots, model) : commandRoots);
+        }
+        var parsed = parsedTrees.get(command, parser.getLanguage(), userCommandGeneration, optimize);
+        if (parsed == null) {
+            var commandRoots = parser.parse(command, model);
+            commandRoots = optimize ? optimizer.optimize(commandRoots, model) : commandRoots;
+            parsed = parsedTrees.put(command, parser.getLanguage(), userCommandGeneration, optimize, commandRoots);
+        }
+        return parsed;
+    }
+
+    private String describe(List<Command> commandRoots) {
+        if (!showOptimizedTree) {
+            return "";
+        }
+        var trees = new StringBuilder();
+        for (Command c : commandRoots) {
+            trees.append("\n" + c.toString());
+        }
+        return trees.toString();
     }
 
     private void fireResult(String[] params) {
-        Result result = new Result(model, params[0], !params[2].equals("") ? params[2] : params[1], !params[2].equals(""));
-        node.fireEvent(new ResultEvent(result));
+        String returnString = !params[2].equals("") ? params[2] : params[1];
+        boolean error = !params[2].equals("");
+        if (!outcomeListeners.isEmpty()) {
+            var outcome = new CommandOutcome(params[0], returnString, error);
+            for (Consumer<CommandOutcome> listener : outcomeListeners) {
+                listener.accept(outcome);
+            }
+        }
+        publishResult(params[0], returnString, error);
+    }
+
+    private void publishResult(String command, String returnString, boolean error) {
+        if (resultListeners.isEmpty()) {
+            return;
+        }
+        var event = new PhaseEvent.FireResult();
+        event.begin();
+        Result result;
+        if (deltaResults) {
+            // Turtles are only copied out of the model when a command that can change them has run
+            var turtles = turtlesChanged ? model.getTurtles().getImmutableTurtles() : null;
+            var trail = turtles != null ? trails.record(turtles) : trails.snapshot();
+            result = results.delta(model, turtles, trail, command, returnString, error);
+        } else {
+            var turtles = model.getTurtles().getImmutableTurtles();
+            result = results.snapshot(model, turtles, trails.record(turtles), command, returnString, error);
+        }
+        turtlesChanged = false;
+        if (profiler != null) {
+            result.profiled(profiler.getHottest(PROFILE_LIMIT));
+        }
+        publish(result);
+        event.commit(command != null ? command : runningCommand);
+    }
+
+    /**
+     * Switches between publishing a full snapshot of the model with every result and publishing only what changed.
+     * Either way each result has a sequence number one higher than the last. The first result after delta results
+     * are turned on is still relative to the last one published, so it should follow a snapshot.
+     *
+     * @param deltaResults true to publish only the changes since the previous result
+     */
+    public void setDeltaResults(boolean deltaResults) {
+        this.deltaResults = deltaResults;
+    }
+
+    /**
+     * Keeps at most about heapBudget trail segments on the heap and spills older ones to a memory-mapped file,
+     * for drawings that outgrow the heap. The trails drawn so far are moved to the new buffer with the next result.
+     *
+     * @param directory the directory to create the spill file in
+     * @param heapBudget the number of segments to keep on the heap
+     * @throws IOException if the spill file cannot be created
+     */
+    public void setTrailSpill(Path directory, int heapBudget) throws IOException {
+        var spilling = new TrailRecorder(directory, heapBudget);
+        trails.close();
+        trails = spilling;
+        turtlesChanged = true;
+    }
+
+    /**
+     * Publishes a full snapshot of the model with no command, so that a window that missed results or just
+     * opened can resynchronize. Later delta results are relative to this snapshot.
+     */
+    public void requestSnapshot() {
+        publish(snapshot());
+    }
+
+    /**
+     * Builds a full snapshot of the model with no command, without publishing it, for callers that only want
+     * the final state. Later delta results are relative to this snapshot.
+     *
+     * @return the snapshot
+     */
+    public Result snapshot() {
+        var turtles = model.getTurtles().getImmutableTurtles();
+        var snapshot = results.snapshot(model, turtles, trails.record(turtles), "", "", false);
+        turtlesChanged = false;
+        return snapshot;
+    }
+
+    private void publish(Result result) {
+        for (Consumer<Result> listener : resultListeners) {
+            listener.accept(result);
+        }
     }
 
     private String generateReturn(List<Command> commandRoots) {
         var returnString = new StringBuilder();
-        for(Command c : commandRoots) {
-            double returnValue = c.execute(model);
-            returnString.append(" " + returnValue);
+        executionError = "";
+        var running = budget;
+        running.enter();
+        try {
+            for (Command c : commandRoots) {
+                try {
+                    running.spend(0);
+                    double returnValue = engine.execute(c, model);
+                    returnString.append(" " + returnValue);
+                } catch (CommandException e) {
+                    executionError = executionError.equals("") ? new Error(e.getMessage()).toString() : executionError;
+                } catch (StackOverflowError e) {
+                    // The frames are unwound by now, so the model can go on to the next command
+                    executionError = executionError.equals("") ? new Error(TOO_DEEP).toString() : executionError;
+                }
+                if (running.isStopped()) {
+                    break;
+                }
+            }
+        } finally {
+            running.exit();
         }
         return returnString.toString();
     }
 
-    private String commandTreeContainsError(List<Command> commands) {
-        for (Command c : commands) {
+    // Must be called after generateReturn, so that errors raised during execution are included
+    private String findError(List<Command> commandRoots) {
+        String treeError = commandTreeContainsError(commandRoots);
+        return !treeError.equals("") ? treeError : executionError;
+    }
+
+    // Finds the first error in the order the trees were written, walking them with an explicit stack
+    static String commandTreeContainsError(List<Command> commands) {
+        var pending = new ArrayDeque<Command>();
+        pushInOrder(pending, commands);
+        while (!pending.isEmpty()) {
+            var c = pending.pop();
             if (c instanceof Error) {
                 return c.toString();
             }
-            String childError = commandTreeContainsError(c.getParameters());
-            if (!childError.equals("")) {
-                return childError;
-            }
+            pushInOrder(pending, c.getParameters());
         }
         return "";
     }
 
+    private static void pushInOrder(Deque<Command> pending, List<Command> commands) {
+        for (int i = commands.size() - 1; i >= 0; i--) {
+            pending.push(commands.get(i));
+        }
+    }
+
+    /**
+     * Sets the engine used to execute command trees, for example a CompilingEngine in place of the
+     * default TreeWalkingEngine. Every engine gives the same results. While profiling, the engine is
+     * profiled from then on, and used on its own again once profiling is turned off.
+     *
+     * @param engine the execution engine
+     */
+    public void setExecutionEngine(ExecutionEngine engine) {
+        if (profiler != null) {
+            unprofiledEngine = engine;
+            this.engine = profiled(engine);
+        } else {
+            this.engine = engine;
+        }
+    }
+
     /**
-     * Adds a listener that is triggered when a command's result is
-     * generated and allows for retrieving that result.
+     * Adds a listener that is called with each command's result as it is generated, on the thread
+     * executing the command. While there are no listeners, no results are built at all.
      *
-     * @param eventHandler the listener for the result
+     * @param listener the listener for the result
      */
-    public void addResultHandler(EventHandler<? super ResultEvent> eventHandler) {
-        node.addEventFilter(ResultEvent.NEW_RESULT, eventHandler);
+    public void addResultListener(Consumer<Result> listener) {
+        resultListeners.add(listener);
+    }
+
+    /**
+     * Adds a listener that is called with the outcome of each command as it finishes, on the thread executing
+     * the command. Unlike a result listener it is given only the command, its return string and whether it
+     * failed, so it never causes the model to be copied.
+     *
+     * @param listener the listener for the outcome
+     */
+    public void addOutcomeListener(Consumer<CommandOutcome> listener) {
+        outcomeListeners.add(listener);
+    }
+
+    /**
+     * Loads a program from a file and executes it, as the {@code loadCommandHistory} command does,
+     * but without splitting the path on spaces.
+     *
+     * @param file the program, usually ending in `.logovar`
+     * @return true if the file was read, whether or not the program in it ran without errors
+     */
+    public boolean load(Path file) {
+        return loadCommandHistory(LOAD_COMMAND_HISTORY + " " + file, file);
     }
 
     // Returns 0 for not applicable, 1 for success, -1 for error
@@ -122,7 +446,7 @@ public class ModelController {
             return saveCommandHistory(command.split(" ")[1]) ? 1 : -1;
         }
         else if (command.startsWith(LOAD_COMMAND_HISTORY)) {
-            return loadCommandHistory(command.split(" ")[1]) ? 1 : -1;
+            return loadCommandHistory(command, Paths.get(command.split(" ")[1])) ? 1 : -1;
         }
         return 0;
     }
@@ -148,16 +472,30 @@ public class ModelController {
 
     /**
      * Loads command history from a text file ending in `.logovar` and executes it.
-     * From https://stackoverflow.com/questions/3402735/what-is-simplest-way-to-read-a-file-into-string
+     * The file is parsed as it is read, and each top-level command runs and publishes its result
+     * as soon as it is complete, so large programs start drawing right away and their trees are never held
+     * in memory whole. The load command is recorded in the history rather than the program, so the history stays
+     * small however large the file is, and saving it afterwards writes a reference that loads the file again.
      *
-     * @param filePath the absolute path of the file, with no spaces
+     * @param command the load command, reported with each result
+     * @param file the path of the file
      * @return true if the command history was successfully loaded, false if not
      */
-    private boolean loadCommandHistory(String filePath) {
-        try {
-            String content = new Scanner(new File(filePath)).useDelimiter("\\Z").next();
-            execute(content);
-        } catch (FileNotFoundException e ) {
+    private boolean loadCommandHistory(String command, Path file) {
+        try (Reader reader = Files.newBufferedReader(file, Charset.forName("UTF-8"))) {
+            commandHistory.add(command);
+            budget.reset();
+            runningCommand = command;
+            parser.parse(reader, model, root -> {
+                var commandRoots = optimize ? optimizer.optimize(List.of(root), model) : List.of(root);
+                turtlesChanged |= ParsedTreeCache.touchesTurtles(commandRoots);
+                String returnString = generateReturn(commandRoots) + describe(commandRoots);
+                if (ParsedTreeCache.definesUserCommands(commandRoots)) {
+                    userCommandGeneration++;
+                }
+                fireResult(new String[] {command, returnString, findError(commandRoots)});
+            });
+        } catch (IOException e) {
             System.out.println(e);
             return false;
         }
@@ -0,0 +1,88 @@
+package model;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a model controller on a thread of its own, so parsing and executing commands never blocks the
+ * JavaFX application thread and the models of different tabs run in parallel.
+ * Commands are queued and executed one at a time in the order they were submitted. Result listeners are
+ * called on the worker thread, so listeners that touch the display must hand the result over with
+ * {@code Platform.runLater}. A command that fails with an unexpected exception is reported to the listeners
+ * as an error result, and the worker goes on with the next command.
+ *
+ * @author agent
+ */
+public class ModelWorker {
+
+    private static final String THREAD_NAME = "SLogo model ";
+
+    private ModelController controller;
+    private ExecutorService executor;
+    private AtomicInteger unfinished;
+
+    /**
+     * Create a worker with its own model controller and thread.
+     * @param name identifies the worker's thread, for example the id of its tab
+     */
+    public ModelWorker(String name) {
+        controller = new ModelController();
+        unfinished = new AtomicInteger();
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, THREAD_NAME + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the model controller, for adding result listeners and changing settings before commands are submitted.
+     * @return the model controller this worker runs
+     */
+    public ModelController getController() {
+        return controller;
+    }
+
+    /**
+     * Queues a command to be executed after every command submitted before it.
+     * @param command the unprocessed command from the GUI
+     */
+    public void submit(String command) {
+        unfinished.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                controller.execute(command);
+            } catch (RuntimeException e) {
+                controller.publishFailure(command, e);
+            } finally {
+                // A cancel that came too late to stop this command must not stop one submitted later
+                if (unfinished.decrementAndGet() == 0) {
+                    controller.withdrawCancel();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the command that is running, or the first one queued if it has not started yet. Commands queued after
+     * it still run. Does nothing when no command is running or queued, so the next command submitted is not stopped.
+     * Called on the front end's thread rather than queued.
+     */
+    public void cancel() {
+        if (unfinished.get() > 0) {
+            controller.cancel();
+            if (unfinished.get() == 0) {
+                controller.withdrawCancel();
+            }
+        }
+    }
+
+    /**
+     * Discards the queued commands, cancels the running one and stops the worker thread.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        controller.cancel();
+    }
+}
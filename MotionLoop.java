@@ -0,0 +1,152 @@
+package model.command.control;
+
+import model.Model;
+import model.ParallelTurtles;
+import model.Turtle;
+import model.command.Command;
+import model.command.ExecutionBudget;
+import model.command.ValueCommand;
+import model.command.turtle.command.Backward;
+import model.command.turtle.command.Forward;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A for loop whose body only runs turtle commands with constant arguments, such as forward, back, right
+ * and left, fused by the optimizer.
+ * The body is flattened once into a list of steps. Every run of consecutive Forward and Backward distances
+ * becomes one step that makes all of its moves on each active turtle in turn, so the turtles are visited once
+ * per run rather than once per move. Every other command is a step of its own that runs through its own
+ * execute method. When the body is nothing but moves, turtles do not affect each other, so the whole loop
+ * runs on each turtle in turn, a chunk of iterations at a time: one visit of the turtles per chunk instead of
+ * one per move per iteration. Either way every turtle ends up where the loop would have left it, having drawn
+ * the same segments in the same order. Large swarms are split across threads by ParallelTurtles.
+ * No loop variable is written on each iteration, no argument is evaluated again, and the budget is charged
+ * once per chunk or iteration. The loop variable and the return value end up the same as if the loop had
+ * run normally.
+ *
+ * @author agent
+ */
+public class MotionLoop extends Command {
+
+    private static final int START_LOCATION = 1;
+    private static final int END_LOCATION = 2;
+    private static final int INCREMENT_LOCATION = 3;
+    // Iterations run on each turtle per visit when the body is only moves; the budget is checked in between
+    private static final int CHUNK = 1024;
+
+    private ToDoubleFunction<Model>[] steps;
+    // The distances of one iteration, signed by direction, if the body is nothing but moves
+    private double[] moves;
+    private int size;
+
+    /**
+     * Create a fused motion loop.
+     * @param loop the original for loop, whose first group gives the loop variable and bounds
+     * @param body the commands of one iteration of the body, in order, each taking only constant arguments
+     */
+    public MotionLoop(Command loop, List<Command> body) {
+        super();
+        addParameter(loop);
+        argCount = 1;
+        var flattened = new ArrayList<ToDoubleFunction<Model>>();
+        var run = new ArrayList<Double>();
+        for (Command command : body) {
+            if (command instanceof Forward || command instanceof Backward) {
+                int direction = command instanceof Forward ? 1 : -1;
+                for (Command distance : command.getParameters()) {
+                    run.add(direction * ((ValueCommand<Double>) distance).getValue());
+                    size++;
+                }
+            } else {
+                addMoves(flattened, run);
+                flattened.add(command::execute);
+                size++;
+            }
+        }
+        if (flattened.isEmpty() && !run.isEmpty()) {
+            moves = toArray(run);
+        }
+        addMoves(flattened, run);
+        steps = flattened.toArray(new ToDoubleFunction[0]);
+    }
+
+    @Override
+    public double execute(Model model) {
+        List<Command> firstGroup = parameters.get(0).getParameters().get(0).getParameters();
+        double start = firstGroup.get(START_LOCATION).execute(model);
+        double end = firstGroup.get(END_LOCATION).execute(model);
+        double increment = firstGroup.get(INCREMENT_LOCATION).execute(model);
+
+        var budget = ExecutionBudget.current();
+        double returnValue = 0;
+        double last = start;
+        boolean ran = false;
+        try {
+            if (moves != null) {
+                double i = start;
+                while (i <= end) {
+                    int iterations = 0;
+                    for (; iterations < CHUNK && i <= end; iterations++) {
+                        last = i;
+                        i += increment;
+                    }
+                    ran = true;
+                    budget.spend((long) iterations * size);
+                    returnValue = moveEach(model, iterations);
+                }
+            } else {
+                for (double i = start; i <= end; i += increment) {
+                    ran = true;
+                    last = i;
+                    budget.spend(size);
+                    for (ToDoubleFunction<Model> step : steps) {
+                        returnValue = step.applyAsDouble(model);
+                    }
+                }
+            }
+        } finally {
+            if (ran) {
+                For.finish(model, firstGroup.get(0), last);
+            }
+        }
+        return returnValue;
+    }
+
+    // Runs the given number of iterations of an all-move body on each active turtle in turn
+    private double moveEach(Model model, int iterations) {
+        ParallelTurtles.run(model, turtle -> {
+            for (int k = 0; k < iterations; k++) {
+                move(turtle, moves);
+            }
+        });
+        return Math.abs(moves[moves.length - 1]);
+    }
+
+    // Ends a run of consecutive moves, if there is one, as a single step
+    private static void addMoves(List<ToDoubleFunction<Model>> steps, List<Double> run) {
+        if (run.isEmpty()) {
+            return;
+        }
+        var distances = toArray(run);
+        run.clear();
+        // Forward and Backward both return the distance they moved
+        double pixels = Math.abs(distances[distances.length - 1]);
+        steps.add(model -> {
+            ParallelTurtles.run(model, turtle -> move(turtle, distances));
+            return pixels;
+        });
+    }
+
+    private static void move(Turtle turtle, double[] distances) {
+        for (double distance : distances) {
+            turtle.moveAlongHeading(distance);
+        }
+    }
+
+    private static double[] toArray(List<Double> values) {
+        return values.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+}
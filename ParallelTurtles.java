@@ -0,0 +1,88 @@
+package model;
+
+import model.command.ExecutionBudget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Runs a per-turtle action on the active turtles, splitting them across a ForkJoinPool once there are enough
+ * of them for the split to pay off, and on the calling thread otherwise.
+ * The active turtles are taken from the model's turtle collection in its own order. Each turtle is handed to
+ * exactly one task, which runs the action on it alone, so every turtle changes and draws its trail in the same
+ * order as it would sequentially and the results are the same. The action must only touch the turtle it is given.
+ * Turtle commands that run one action per active turtle, such as Forward and Backward, go through here.
+ * Each run charges the execution budget one instruction per active turtle, on the calling thread, so a long run
+ * over many turtles counts against the budget like the loop iterations around it.
+ *
+ * @author agent
+ */
+public class ParallelTurtles {
+
+    /**
+     * The number of active turtles from which actions run in parallel.
+     */
+    public static final int DEFAULT_THRESHOLD = 4096;
+    private static final int CHUNK = 1024;
+
+    private ParallelTurtles() {
+    }
+
+    /**
+     * Runs the action on every active turtle, in parallel when there are at least DEFAULT_THRESHOLD of them.
+     * @param model the model whose active turtles to run the action on
+     * @param action the action, which must only touch the turtle it is given
+     */
+    public static void run(Model model, Consumer<Turtle> action) {
+        run(model, action, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Runs the action on every active turtle, in parallel when there are at least threshold of them.
+     * @param model the model whose active turtles to run the action on
+     * @param action the action, which must only touch the turtle it is given
+     * @param threshold the number of active turtles from which to run in parallel
+     */
+    public static void run(Model model, Consumer<Turtle> action, int threshold) {
+        var turtles = new ArrayList<Turtle>();
+        model.getTurtles().run(turtles::add);
+        ExecutionBudget.charge(turtles.size());
+        if (turtles.size() < threshold) {
+            turtles.forEach(action);
+        } else {
+            ForkJoinPool.commonPool().invoke(new Range(turtles, action, 0, turtles.size()));
+        }
+    }
+
+    /**
+     * Runs the action on a range of the active turtles, splitting it in half until it is at most CHUNK long.
+     */
+    private static class Range extends RecursiveAction {
+        private List<Turtle> turtles;
+        private Consumer<Turtle> action;
+        private int from;
+        private int to;
+
+        private Range(List<Turtle> turtles, Consumer<Turtle> action, int from, int to) {
+            this.turtles = turtles;
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK) {
+                for (int i = from; i < to; i++) {
+                    action.accept(turtles.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Range(turtles, action, from, middle), new Range(turtles, action, middle, to));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package model;
+
+import model.command.Command;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Measures moving every active turtle once, sequentially and split across the ForkJoinPool by ParallelTurtles,
+ * for 1k, 10k and 100k active turtles.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class ParallelTurtlesBenchmark {
+
+    private static final String SEQUENTIAL = "sequential";
+    private static final Consumer<Turtle> MOVE = t -> t.moveAlongHeading(1);
+
+    @Param({"1000", "10000", "100000"})
+    private int turtles;
+
+    @Param({SEQUENTIAL, "parallel"})
+    private String mode;
+
+    private Model model;
+    private int threshold;
+
+    @Setup
+    public void setUp() {
+        var parser = new CommandParser();
+        model = new Model();
+        for (Command c : parser.parse(new ProgramGenerator().turtles(turtles), model)) {
+            c.execute(model);
+        }
+        threshold = mode.equals(SEQUENTIAL) ? Integer.MAX_VALUE : ParallelTurtles.DEFAULT_THRESHOLD;
+    }
+
+    @Benchmark
+    public void moveAll() {
+        ParallelTurtles.run(model, MOVE, threshold);
+    }
+}
@@ -0,0 +1,55 @@
+package model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures CommandParser.parse on generated programs of growing length and nesting depth.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int commands;
+
+    @Param({"10", "1000", "100000"})
+    private int depth;
+
+    private CommandParser parser;
+    private Model model;
+    private String flatProgram;
+    private String nestedProgram;
+
+    @Setup
+    public void setUp() {
+        parser = new CommandParser();
+        model = new Model();
+        flatProgram = new ProgramGenerator().flat(commands);
+        nestedProgram = new ProgramGenerator().nested(depth);
+    }
+
+    @Benchmark
+    public List<?> parseFlat() {
+        return parser.parse(flatProgram, model);
+    }
+
+    @Benchmark
+    public List<?> parseNested() {
+        return parser.parse(nestedProgram, model);
+    }
+}
@@ -0,0 +1,210 @@
+package model;
+
+import model.command.Command;
+import model.command.CommandKind;
+import model.command.control.For;
+import model.command.control.If;
+import model.command.control.Invariant;
+import model.command.control.InvariantLoop;
+import model.command.control.MakeUserInstruction;
+import model.command.control.MakeVariable;
+import model.command.control.ScopedBody;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Least-recently-used cache of parsed command trees.
+ * A tree is only reused for the same input, parsed in the same language, against the same
+ * generation of user commands, since user command calls are resolved while parsing,
+ * and only if it was optimized the same way.
+ * Each entry also remembers whether running its trees defines user commands, which is what moves the
+ * generation on, so the caller never has to compare the user commands themselves, and whether running them
+ * can change a turtle, so results after commands that cannot are built without reading the turtles.
+ *
+ * @author agent
+ */
+public class ParsedTreeCache {
+
+    private static final String MATH_PACKAGE = "model.command.math";
+    private static final String GROUP_PACKAGE = "model.command.control.group";
+    private static final Set<Class<?>> TURTLE_FREE_CONTROL = Set.of(MakeVariable.class, If.class, For.class,
+            InvariantLoop.class, Invariant.class, ScopedBody.class);
+
+    private Map<Key, Entry> trees;
+
+    /**
+     * Create a cache holding at most the given number of parsed inputs.
+     * @param capacity the maximum number of cached inputs
+     */
+    public ParsedTreeCache(int capacity) {
+        trees = new LinkedHashMap<>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get the cached command roots for an input.
+     * @param input the unprocessed command string
+     * @param language the language the parser was set to
+     * @param generation the current user command generation
+     * @param optimized whether the trees are optimized
+     * @return the cached entry, or null if the input has not been parsed under these conditions
+     */
+    public Entry get(String input, String language, long generation, boolean optimized) {
+        return trees.get(new Key(input, language, generation, optimized));
+    }
+
+    /**
+     * Cache the command roots parsed from an input.
+     * @param input the unprocessed command string
+     * @param language the language the parser was set to
+     * @param generation the current user command generation
+     * @param optimized whether the trees are optimized
+     * @param commandRoots the parsed command roots
+     * @return the new entry
+     */
+    public Entry put(String input, String language, long generation, boolean optimized, List<Command> commandRoots) {
+        var entry = new Entry(List.copyOf(commandRoots), definesUserCommands(commandRoots), touchesTurtles(commandRoots));
+        trees.put(new Key(input, language, generation, optimized), entry);
+        return entry;
+    }
+
+    /**
+     * Makes an entry for command roots that are not kept in any cache, for callers that must run fresh trees.
+     * @param commandRoots the parsed command roots
+     * @return the entry
+     */
+    public static Entry uncached(List<Command> commandRoots) {
+        return new Entry(List.copyOf(commandRoots), definesUserCommands(commandRoots), touchesTurtles(commandRoots));
+    }
+
+    /**
+     * Checks whether running the given trees can define a user command, either directly or by calling a user
+     * command whose body does. The trees are walked with an explicit stack, so deep nesting is fine.
+     * @param commandRoots the command roots
+     * @return true if a {@code to} command can be reached from the roots
+     */
+    public static boolean definesUserCommands(List<Command> commandRoots) {
+        var pending = new ArrayDeque<Command>(commandRoots);
+        var seen = Collections.newSetFromMap(new IdentityHashMap<Command, Boolean>());
+        while (!pending.isEmpty()) {
+            var command = pending.pop();
+            if (command instanceof MakeUserInstruction) {
+                return true;
+            }
+            if (seen.add(command)) {
+                pending.addAll(command.getParameters());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether running the given trees can change a turtle. Only math, variables, lists, conditionals,
+     * for loops, defining user commands and calling ones whose bodies cannot change a turtle are known not to;
+     * any other command is assumed to. User command bodies are walked as part of their call sites.
+     * @param commandRoots the command roots
+     * @return true if a command that may change a turtle can be reached from the roots
+     */
+    public static boolean touchesTurtles(List<Command> commandRoots) {
+        var pending = new ArrayDeque<Command>(commandRoots);
+        var seen = Collections.newSetFromMap(new IdentityHashMap<Command, Boolean>());
+        while (!pending.isEmpty()) {
+            var command = pending.pop();
+            if (!turtleFree(command)) {
+                return true;
+            }
+            if (seen.add(command)) {
+                pending.addAll(command.getParameters());
+            }
+        }
+        return false;
+    }
+
+    private static boolean turtleFree(Command command) {
+        if (command.getKind() != CommandKind.COMMAND) {
+            return true;
+        }
+        var type = command.getClass();
+        return type.getPackageName().equals(MATH_PACKAGE) || type.getPackageName().equals(GROUP_PACKAGE)
+                || TURTLE_FREE_CONTROL.contains(type);
+    }
+
+    /**
+     * The command roots parsed from one input.
+     */
+    public static class Entry {
+        private List<Command> roots;
+        private boolean definesUserCommands;
+        private boolean touchesTurtles;
+
+        private Entry(List<Command> roots, boolean definesUserCommands, boolean touchesTurtles) {
+            this.roots = roots;
+            this.definesUserCommands = definesUserCommands;
+            this.touchesTurtles = touchesTurtles;
+        }
+
+        /**
+         * Get the parsed command roots, shared by every use of this entry.
+         * @return the command roots
+         */
+        public List<Command> getRoots() {
+            return roots;
+        }
+
+        /**
+         * Indicates whether running the roots can define a user command, which starts a new generation.
+         * @return true if the roots contain or call a {@code to} command
+         */
+        public boolean definesUserCommands() {
+            return definesUserCommands;
+        }
+
+        /**
+         * Indicates whether running the roots can change a turtle.
+         * @return true if the roots contain or call a command that may change a turtle
+         */
+        public boolean touchesTurtles() {
+            return touchesTurtles;
+        }
+    }
+
+    private static class Key {
+        private String input;
+        private String language;
+        private long generation;
+        private boolean optimized;
+
+        private Key(String input, String language, long generation, boolean optimized) {
+            this.input = input;
+            this.language = language;
+            this.generation = generation;
+            this.optimized = optimized;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            var other = (Key) o;
+            return generation == other.generation && optimized == other.optimized
+                    && input.equals(other.input) && language.equals(other.language);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(input, language, generation, optimized);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder events for the phases a submitted command goes through in ModelController.
+ * Recording them costs next to nothing unless a recording with these events enabled is running.
+ *
+ * @author agent
+ */
+@Category("SLogo")
+public abstract class PhaseEvent extends Event {
+
+    @Label("Command")
+    private String command;
+
+    /**
+     * Ends the event and records it, if it is enabled and long enough to keep.
+     * @param command the command string the phase was for
+     */
+    public void commit(String command) {
+        end();
+        if (shouldCommit()) {
+            this.command = command;
+            commit();
+        }
+    }
+
+    @Name("slogo.Parse")
+    @Label("Parse")
+    public static class Parse extends PhaseEvent {
+    }
+
+    @Name("slogo.Execute")
+    @Label("Execute")
+    public static class Execute extends PhaseEvent {
+    }
+
+    @Name("slogo.FireResult")
+    @Label("Fire Result")
+    public static class FireResult extends PhaseEvent {
+    }
+}
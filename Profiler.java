@@ -0,0 +1,153 @@
+package model;
+
+import model.command.Command;
+import model.command.control.UserCommand;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects call counts, self and total time, and allocations per command class and per user command name.
+ * Commands report to it through the code a ProfilingCompiler generates or the probes a ProfilingEngine puts
+ * into the trees, so nothing is recorded, and nothing costs anything, unless a model is running with profiling
+ * turned on.
+ * Reading the clock and the thread's allocation counter around a command takes time of its own, and that time
+ * falls outside the command's measurement but inside its parent's. It is measured once when the profiler is
+ * created and taken off the parent's self time for every command the parent ran, so parents with many cheap
+ * children are not charged for the profiling itself.
+ * Recording happens on the thread running the model; profiles can be read from any thread.
+ *
+ * @author agent
+ */
+public class Profiler {
+
+    private static final int INITIAL_DEPTH = 64;
+    private static final int CALIBRATION_PROBES = 10000;
+    private static final int CALIBRATION_ROUNDS = 5;
+
+    private Map<String, long[]> entries;
+    private com.sun.management.ThreadMXBean threads;
+    private long[] starts;
+    private long[] allocationStarts;
+    private long[] childNanos;
+    private long[] childBytes;
+    private int depth;
+    private long probeNanos;
+
+    /**
+     * Create an empty profiler.
+     */
+    public Profiler() {
+        entries = new HashMap<>();
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        starts = new long[INITIAL_DEPTH];
+        allocationStarts = new long[INITIAL_DEPTH];
+        childNanos = new long[INITIAL_DEPTH];
+        childBytes = new long[INITIAL_DEPTH];
+        probeNanos = calibrate();
+    }
+
+    /**
+     * Gets the name a command is profiled under.
+     * @param command the command
+     * @return the user command's name for a user command call, otherwise the command's class name
+     */
+    public static String nameOf(Command command) {
+        if (command instanceof UserCommand && ((UserCommand) command).getName() != null) {
+            return ((UserCommand) command).getName();
+        }
+        return command.getClass().getSimpleName();
+    }
+
+    /**
+     * Marks the start of a command.
+     */
+    void enter() {
+        if (depth == starts.length) {
+            int capacity = depth * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            allocationStarts = Arrays.copyOf(allocationStarts, capacity);
+            childNanos = Arrays.copyOf(childNanos, capacity);
+            childBytes = Arrays.copyOf(childBytes, capacity);
+        }
+        childNanos[depth] = 0;
+        childBytes[depth] = 0;
+        allocationStarts[depth] = allocatedBytes();
+        starts[depth] = System.nanoTime();
+        depth++;
+    }
+
+    /**
+     * Marks the end of the command started by the matching enter.
+     * @param name the name the command is profiled under
+     */
+    void exit(String name) {
+        long total = System.nanoTime() - starts[--depth];
+        long bytes = allocatedBytes() - allocationStarts[depth];
+        record(name, total, Math.max(0, total - childNanos[depth]), bytes - childBytes[depth]);
+        if (depth > 0) {
+            childNanos[depth - 1] += total + probeNanos;
+            childBytes[depth - 1] += bytes;
+        }
+    }
+
+    /**
+     * Gets the commands that spent the most time in themselves.
+     * @param limit the largest number of commands to return
+     * @return the profiles, by self time from highest to lowest
+     */
+    public synchronized List<CommandProfile> getHottest(int limit) {
+        var profiles = new ArrayList<CommandProfile>();
+        for (var entry : entries.entrySet()) {
+            long[] e = entry.getValue();
+            profiles.add(new CommandProfile(entry.getKey(), e[0], e[1], e[2], e[3]));
+        }
+        profiles.sort(Comparator.comparingLong(CommandProfile::getSelfNanos).reversed());
+        return profiles.subList(0, Math.min(limit, profiles.size()));
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public synchronized void reset() {
+        entries.clear();
+    }
+
+    private synchronized void record(String name, long totalNanos, long selfNanos, long bytes) {
+        long[] e = entries.computeIfAbsent(name, n -> new long[4]);
+        e[0]++;
+        e[1] += totalNanos;
+        e[2] += selfNanos;
+        e[3] += bytes;
+    }
+
+    /**
+     * Measures the time a probe adds to its parent outside the probe's own measurement: runs empty probes
+     * inside an outer one and divides the outer one's self time among them. The fastest round is kept, since
+     * the earlier ones also pay for compiling the probe code.
+     */
+    private long calibrate() {
+        long fastest = Long.MAX_VALUE;
+        for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+            enter();
+            for (int i = 0; i < CALIBRATION_PROBES; i++) {
+                enter();
+                exit(null);
+            }
+            depth--;
+            long self = System.nanoTime() - starts[depth] - childNanos[depth];
+            fastest = Math.min(fastest, self / CALIBRATION_PROBES);
+        }
+        reset();
+        return fastest;
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
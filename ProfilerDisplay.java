@@ -0,0 +1,58 @@
+package GUI.TabbedGUI.Tabs.Windows.WindowOptions;
+
+import GUI.TabbedGUI.Tabs.Windows.Window;
+import javafx.beans.property.StringProperty;
+import javafx.scene.Node;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+import model.CommandProfile;
+import model.Result;
+
+import java.util.List;
+
+public class ProfilerDisplay extends Window {
+
+    private static String CSS_FILE = "WindowOptions.css";
+    private static final String PROFILER_DISPLAY = "Profiler Display";
+    private static final String PROFILER_OFF = "Launch with -Dslogo.profile=true to start profiling";
+    private static final String ROW_FORMAT = "%s  %d calls  %.2f ms self  %.2f ms total  %d KB";
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final int BYTES_PER_KILOBYTE = 1024;
+
+    private VBox items;
+
+    /**
+     * Window which displays the commands that have taken the most time while profiling, hottest first.
+     * @param width Width of the window
+     * @param height Height of the window
+     * @param commandText StringProperty to be changed on submission.
+     * @author agent
+     */
+    public ProfilerDisplay(double width, double height, StringProperty commandText){
+        super(width, height, commandText);
+        this.getStylesheets().add(getClass().getResource(CSS_FILE).toExternalForm());
+        items = new VBox();
+        getChildren().add(items);
+        Text t = new Text(PROFILER_DISPLAY);
+        items.getChildren().add(t);
+        items.getChildren().add(new Text(PROFILER_OFF));
+        setColumnIndex(t, 0);
+        setRowIndex(t, 0);
+    }
+
+    public void addResult(Result result){
+        List<CommandProfile> profile = result.getProfile();
+        List<Node> children = items.getChildren();
+        children.clear();
+        children.add(new Text(PROFILER_DISPLAY));
+        if (profile.isEmpty()) {
+            children.add(new Text(PROFILER_OFF));
+            return;
+        }
+        for (CommandProfile p : profile) {
+            children.add(new Text(String.format(ROW_FORMAT, p.getName(), p.getCalls(),
+                    p.getSelfNanos() / NANOS_PER_MILLI, p.getTotalNanos() / NANOS_PER_MILLI,
+                    p.getAllocatedBytes() / BYTES_PER_KILOBYTE)));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package model;
+
+import model.command.Command;
+import model.command.CommandKind;
+
+/**
+ * A command compiler whose compiled commands report to a Profiler as they run.
+ * Every command other than constants and variables is wrapped, user command bodies are compiled along with
+ * their call sites so the commands in them are profiled too, and commands without a specialized form are charged
+ * for everything they run through their own execute method.
+ * Only used while profiling is on, so the usual engines carry no instrumentation at all.
+ *
+ * @author agent
+ */
+public class ProfilingCompiler extends CommandCompiler {
+
+    private Profiler profiler;
+
+    /**
+     * Create a compiler that profiles into the given profiler.
+     * @param profiler receives the time and allocations of every compiled command
+     */
+    public ProfilingCompiler(Profiler profiler) {
+        super();
+        this.profiler = profiler;
+    }
+
+    @Override
+    protected Code compile(Command command, Scope scope) {
+        var code = super.compile(command, scope);
+        if (command.getKind() == CommandKind.CONSTANT || command.getKind() == CommandKind.VARIABLE) {
+            return code;
+        }
+        var name = Profiler.nameOf(command);
+        return (model, frame) -> {
+            profiler.enter();
+            try {
+                return code.execute(model, frame);
+            } finally {
+                profiler.exit(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,121 @@
+package model;
+
+import model.command.Command;
+import model.command.CommandKind;
+import model.command.Error;
+import model.command.control.group.ListBody;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Execution engine that profiles another engine which runs trees through the commands themselves, such as the
+ * TreeWalkingEngine. Before a tree runs, every command in it is replaced in its parent by a proxy that reports
+ * to a Profiler around the command's own execute method, so the tree runs the same way it would unprofiled.
+ * Constants, variables, lists, errors and user command definitions are left alone, since parents look at those
+ * directly, and so are the bodies of user commands, which are shared with the model's definitions; a call to a
+ * user command is profiled as a whole under the user command's name.
+ * The proxies are put into the tree itself, so the trees must not be shared, for example by a ParsedTreeCache.
+ *
+ * @author agent
+ */
+public class ProfilingEngine implements ExecutionEngine {
+
+    private ExecutionEngine engine;
+    private Profiler profiler;
+
+    /**
+     * Create an engine that profiles another one.
+     * @param engine the engine that runs the profiled trees
+     * @param profiler receives the time and allocations of every command
+     */
+    public ProfilingEngine(ExecutionEngine engine, Profiler profiler) {
+        this.engine = engine;
+        this.profiler = profiler;
+    }
+
+    @Override
+    public double execute(Command root, Model model) {
+        return engine.execute(instrument(root), model);
+    }
+
+    private Command instrument(Command root) {
+        var pending = new ArrayDeque<Command>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            var command = pending.pop();
+            if (command.getKind() == CommandKind.USER_COMMAND || command.getKind() == CommandKind.VALUE) {
+                continue;
+            }
+            var parameters = command.getParameters();
+            for (int i = 0; i < parameters.size(); i++) {
+                var parameter = parameters.get(i);
+                if (profiled(parameter)) {
+                    command.setParameter(i, new ProfiledCommand(parameter));
+                }
+                pending.push(parameter);
+            }
+        }
+        return profiled(root) ? new ProfiledCommand(root) : root;
+    }
+
+    private boolean profiled(Command command) {
+        var kind = command.getKind();
+        return (kind == CommandKind.COMMAND || kind == CommandKind.USER_COMMAND) && !(command instanceof Error)
+                && !(command instanceof ListBody) && !(command instanceof ProfiledCommand);
+    }
+
+    /**
+     * Stands in for a command in its parent, reporting the command's execution to the profiler.
+     * Everything else is the command's own, so walking the tree sees through the proxy.
+     */
+    private class ProfiledCommand extends Command {
+        private Command command;
+        private String name;
+
+        private ProfiledCommand(Command command) {
+            this.command = command;
+            name = Profiler.nameOf(command);
+        }
+
+        @Override
+        public double execute(Model model) {
+            profiler.enter();
+            try {
+                return command.execute(model);
+            } finally {
+                profiler.exit(name);
+            }
+        }
+
+        @Override
+        public void addParameter(Command c) {
+            command.addParameter(c);
+        }
+
+        @Override
+        public void setParameter(int index, Command c) {
+            command.setParameter(index, c);
+        }
+
+        @Override
+        public List<Command> getParameters() {
+            return command.getParameters();
+        }
+
+        @Override
+        public int getArgCount() {
+            return command.getArgCount();
+        }
+
+        @Override
+        public CommandKind getKind() {
+            return command.getKind();
+        }
+
+        @Override
+        public String toString() {
+            return command.toString();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package model;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic SLogo programs in English for benchmarks. Every program is determined by its
+ * parameters and the seed, so the same benchmark runs the same program on every commit.
+ *
+ * @author agent
+ */
+public class ProgramGenerator {
+
+    public static final long DEFAULT_SEED = 308;
+
+    private static final int MAX_DISTANCE = 50;
+    private static final int MAX_ANGLE = 360;
+    private static final int VARIABLE_NAMES = 16;
+
+    private Random random;
+
+    /**
+     * Create a generator with the default seed.
+     */
+    public ProgramGenerator() {
+        this(DEFAULT_SEED);
+    }
+
+    /**
+     * Create a generator.
+     * @param seed the seed for every random choice
+     */
+    public ProgramGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * A program of top-level commands with no nesting: moves, turns and variable assignments.
+     * @param commands the number of top-level commands
+     * @return the program
+     */
+    public String flat(int commands) {
+        var program = new StringBuilder();
+        for (int i = 0; i < commands; i++) {
+            program.append(simpleCommand()).append('\n');
+        }
+        return program.toString();
+    }
+
+    /**
+     * A program of if statements nested inside each other, with a move at the innermost level.
+     * Every condition is true, so executing it runs each level once.
+     * @param depth the number of nested lists
+     * @return the program
+     */
+    public String nested(int depth) {
+        var program = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            program.append("if 1 [ ");
+        }
+        program.append(simpleCommand());
+        for (int i = 0; i < depth; i++) {
+            program.append(" ]");
+        }
+        return program.append('\n').toString();
+    }
+
+    /**
+     * A single loop whose body moves, turns and does arithmetic on the loop variable.
+     * @param iterations the number of times the body runs
+     * @return the program
+     */
+    public String loop(int iterations) {
+        return "for [ :i 1 " + iterations + " 1 ] [ fd 1 rt sum :i 1 make :x product :i 2 ]\n";
+    }
+
+    /**
+     * A single loop whose body only moves and turns the turtle by constants, which the optimizer fuses.
+     * @param iterations the number of times the body runs
+     * @return the program
+     */
+    public String motion(int iterations) {
+        return "for [ :i 1 " + iterations + " 1 ] [ fd 2 rt 1 fd 1 bk 1 ]\n";
+    }
+
+    /**
+     * The definition of a user command with one parameter, to run before userCommandCalls.
+     * @return the program defining the user command step
+     */
+    public String userCommandDefinition() {
+        return "to step [ :n ] [ fd :n rt 90 make :x sum :n 1 ]\n";
+    }
+
+    /**
+     * A loop calling the user command defined by userCommandDefinition.
+     * @param calls the number of calls
+     * @return the program
+     */
+    public String userCommandCalls(int calls) {
+        return "for [ :i 1 " + calls + " 1 ] [ step 5 ]\n";
+    }
+
+    /**
+     * The definitions of a chain of user commands r0 to r{depth}, to run before recursiveCall. Each one calls the
+     * one below it twice, so a call to the top runs 2^depth bodies, as a recursive command with two recursive
+     * calls would. User command calls are resolved while parsing, so this is as close to recursion as a program
+     * can get: the calls nest depth deep and every body gets its own parameter.
+     * @param depth the number of levels above r0
+     * @return the program defining the user commands
+     */
+    public String recursiveDefinitions(int depth) {
+        var program = new StringBuilder("to r0 [ :n ] [ fd :n rt 90 ]\n");
+        for (int i = 1; i <= depth; i++) {
+            program.append("to r").append(i).append(" [ :n ] [ r").append(i - 1).append(" :n r").append(i - 1)
+                    .append(" sum :n 1 ]\n");
+        }
+        return program.toString();
+    }
+
+    /**
+     * A call to the top of the chain defined by recursiveDefinitions.
+     * @param depth the number of levels above r0, as passed to recursiveDefinitions
+     * @return the program
+     */
+    public String recursiveCall(int depth) {
+        return "r" + depth + " 1\n";
+    }
+
+    /**
+     * A program that assigns distinct variables.
+     * @param count the number of variables
+     * @return the program
+     */
+    public String variables(int count) {
+        var program = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            program.append("make :v").append(i).append(' ').append(random.nextInt(MAX_DISTANCE)).append('\n');
+        }
+        return program.toString();
+    }
+
+    /**
+     * A program that creates turtles numbered from 1 and makes them all active.
+     * @param count the number of turtles
+     * @return the program
+     */
+    public String turtles(int count) {
+        var program = new StringBuilder("tell [");
+        for (int i = 1; i <= count; i++) {
+            program.append(' ').append(i);
+        }
+        return program.append(" ]\n").toString();
+    }
+
+    /**
+     * A program whose turtle draws the given number of trail segments.
+     * @param segments the number of segments to draw
+     * @return the program
+     */
+    public String trail(int segments) {
+        return "pd for [ :i 1 " + segments + " 1 ] [ fd 1 rt 1 ]\n";
+    }
+
+    private String simpleCommand() {
+        int choice = random.nextInt(3);
+        if (choice == 0) {
+            return "fd " + random.nextInt(MAX_DISTANCE);
+        } else if (choice == 1) {
+            return "rt " + random.nextInt(MAX_ANGLE);
+        }
+        return "make :v" + random.nextInt(VARIABLE_NAMES) + " sum " + random.nextInt(MAX_DISTANCE)
+                + " " + random.nextInt(MAX_DISTANCE);
+    }
+}
@@ -0,0 +1,159 @@
+package GUI.TabbedGUI.Tabs.Windows;
+
+import GUI.TabbedGUI.Tabs.Windows.TurtleView.TurtleViewer;
+import GUI.TabbedGUI.Tabs.Windows.WindowOptions.VarDisplay;
+import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.scene.Scene;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.HBox;
+import javafx.stage.Stage;
+import model.ModelController;
+import model.ProgramGenerator;
+import model.Result;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures how long TurtleViewer and VarDisplay take to show a stream of results, running JavaFX headless
+ * through Monocle with the software renderer, so it works on a build machine without a display.
+ * The model starts with the given number of turtles, trail segments and variables; every frame then moves
+ * the turtles one step and changes one variable, and the result is handed to both windows. The model runs in a
+ * ModelController, as it does in the application, so the results carry its trail buffer. For each frame,
+ * the time spent in addResult, in CSS and layout, and in rendering the scene is recorded, along with the bytes
+ * the application thread allocated, and a summary is printed at the end.
+ * <p>
+ * Usage: {@code RenderBenchmark [turtles] [segments] [variables] [frames] [delta]}, where delta is true to
+ * send delta results instead of snapshots. Needs the Monocle jar on the classpath.
+ *
+ * @author agent
+ */
+public class RenderBenchmark {
+
+    private static final int DEFAULT_TURTLES = 100;
+    private static final int DEFAULT_SEGMENTS = 100000;
+    private static final int DEFAULT_VARIABLES = 100;
+    private static final int DEFAULT_FRAMES = 300;
+    private static final int WARMUP_FRAMES = 30;
+    private static final double WIDTH = 800;
+    private static final double HEIGHT = 600;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double BYTES_PER_MEGABYTE = 1 << 20;
+    private static final String STEP = "fd 1 rt 1";
+
+    private int turtles;
+    private int segments;
+    private int variables;
+    private int frames;
+    private boolean delta;
+
+    public RenderBenchmark(int turtles, int segments, int variables, int frames, boolean delta) {
+        this.turtles = turtles;
+        this.segments = segments;
+        this.variables = variables;
+        this.frames = frames;
+        this.delta = delta;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("glass.platform", "Monocle");
+        System.setProperty("monocle.platform", "Headless");
+        System.setProperty("prism.order", "sw");
+        var benchmark = new RenderBenchmark(argument(args, 0, DEFAULT_TURTLES), argument(args, 1, DEFAULT_SEGMENTS),
+                argument(args, 2, DEFAULT_VARIABLES), argument(args, 3, DEFAULT_FRAMES),
+                args.length > 4 && Boolean.parseBoolean(args[4]));
+        var done = new CountDownLatch(1);
+        Platform.startup(() -> {
+            benchmark.run();
+            done.countDown();
+        });
+        done.await();
+        Platform.exit();
+    }
+
+    /**
+     * Runs the benchmark and prints the summary. Must be called on the JavaFX application thread.
+     */
+    public void run() {
+        var generator = new ProgramGenerator();
+        var controller = new ModelController();
+        int steps = turtles == 0 ? 0 : segments / turtles;
+        controller.execute(generator.turtles(turtles) + generator.trail(steps) + generator.variables(variables));
+        var latest = new Result[1];
+        controller.setDeltaResults(delta);
+        controller.addResultListener(r -> latest[0] = r);
+
+        var viewer = new TurtleViewer(WIDTH, HEIGHT);
+        var display = new VarDisplay(WIDTH / 2, HEIGHT, new SimpleStringProperty());
+        var root = new HBox(viewer, display);
+        var stage = new Stage();
+        stage.setScene(new Scene(root, WIDTH * 3 / 2, HEIGHT));
+        stage.show();
+        var image = new WritableImage((int) (WIDTH * 3 / 2), (int) HEIGHT);
+        var allocations = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        var addResultTimes = new long[frames];
+        var layoutTimes = new long[frames];
+        var renderTimes = new long[frames];
+        var allocated = new long[frames];
+        controller.requestSnapshot();
+        for (int frame = -WARMUP_FRAMES; frame < frames; frame++) {
+            long bytes = allocations.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            viewer.addResult(latest[0]);
+            display.addResult(latest[0]);
+            long added = System.nanoTime();
+            root.applyCss();
+            root.layout();
+            long laidOut = System.nanoTime();
+            root.getScene().snapshot(image);
+            long rendered = System.nanoTime();
+            if (frame >= 0) {
+                addResultTimes[frame] = added - start;
+                layoutTimes[frame] = laidOut - added;
+                renderTimes[frame] = rendered - laidOut;
+                allocated[frame] = allocations.getThreadAllocatedBytes(thread) - bytes;
+            }
+            controller.execute(STEP + " make :v" + Math.floorMod(frame, Math.max(1, variables)) + " " + frame);
+        }
+        stage.close();
+        report(addResultTimes, layoutTimes, renderTimes, allocated);
+    }
+
+    private void report(long[] addResultTimes, long[] layoutTimes, long[] renderTimes, long[] allocated) {
+        System.out.printf("%d turtles, %d segments, %d variables, %d frames, %s results%n",
+                turtles, segments, variables, frames, delta ? "delta" : "snapshot");
+        System.out.println("phase        mean ms    p50 ms    p99 ms    max ms");
+        if (frames == 0) {
+            System.out.println("no frames measured");
+            return;
+        }
+        printTimes("addResult", addResultTimes);
+        printTimes("layout", layoutTimes);
+        printTimes("render", renderTimes);
+        long totalBytes = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < frames; i++) {
+            totalBytes += allocated[i];
+            totalNanos += addResultTimes[i] + layoutTimes[i] + renderTimes[i];
+        }
+        System.out.printf("allocated %.2f MB per frame, %.1f MB/s%n", totalBytes / BYTES_PER_MEGABYTE / frames,
+                totalBytes / BYTES_PER_MEGABYTE / (totalNanos / NANOS_PER_MILLI / 1000));
+    }
+
+    private void printTimes(String phase, long[] times) {
+        var sorted = times.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().orElse(0);
+        System.out.printf("%-10s %9.3f %9.3f %9.3f %9.3f%n", phase, mean / NANOS_PER_MILLI,
+                sorted[sorted.length / 2] / NANOS_PER_MILLI, sorted[sorted.length * 99 / 100] / NANOS_PER_MILLI,
+                sorted[sorted.length - 1] / NANOS_PER_MILLI);
+    }
+
+    private static int argument(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+}
@@ -1,16 +1,20 @@
 package model;
 
-import javafx.scene.paint.Color;
-
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /*
  * Result object that is passed back to the front end, containing all relevant information
  * for the front end to update its display. All information is a copy, so the front-end cannot
  * change the back end data accidentally.
+ * A delta result, made by a ResultTracker, only holds what changed since the result numbered before it.
  *
  * @author Luke Truitt
  * @author Hyunjae Lee
@@ -18,21 +22,33 @@ import java.util.Map;
 public class Result {
 
     private Map<Integer, ImmutableTurtle> turtles;
-    private String commandString, returnString;
-    private Color backgroundColor;
+    private int backgroundColor;
     private Map<String, Double> variables;
     private ArrayList<String> userCommands;
-    private boolean error;
+    private List<CommandOutcome> outcomes;
+    private TrailBuffer trail;
+    private int trailStart;
+    private long sequence;
+    private boolean delta;
+    private Set<String> removedVariables;
+    private List<CommandProfile> profile;
 
     /**
      * Creates a result object from the given model, copying all relevant fields.
      * @param model the model from which to create this result
      */
     public Result(Model model) {
-        turtles = model.getTurtles().getImmutableTurtles();
-        backgroundColor = model.getBackgroundColor();
+        this(model, model.getTurtles().getImmutableTurtles());
+    }
+
+    // Creates a snapshot result from turtles the caller has already copied out of the model
+    Result(Model model, Map<Integer, ImmutableTurtle> turtles) {
+        this.turtles = turtles;
+        backgroundColor = TrailLines.background(model);
         variables = new HashMap<>(model.getVariables());
         userCommands = new ArrayList<>(model.getUserInstructions().keySet());
+        removedVariables = Set.of();
+        outcomes = List.of();
     }
 
     /**
@@ -45,13 +61,117 @@ public class Result {
      */
     public Result(Model model, String commandString, String returnString, boolean error) {
         this(model);
-        this.commandString = commandString;
-        this.returnString = returnString;
-        this.error = error;
+        outcomes = List.of(new CommandOutcome(commandString, returnString, error));
+    }
+
+    /**
+     * Creates a result object that also carries trails kept in a trail buffer.
+     * @param model the model from which to create this result
+     * @param trail a snapshot of the trails, which is shared rather than copied
+     * @param commandString the original command string that the user submitted
+     * @param returnString the return values in string form (or could be an error message)
+     * @param error whether or not there was an error in command execution
+     */
+    public Result(Model model, TrailBuffer trail, String commandString, String returnString, boolean error) {
+        this(model, commandString, returnString, error);
+        this.trail = trail;
+    }
+
+    Result(Model model, Map<Integer, ImmutableTurtle> turtles, TrailBuffer trail, String commandString,
+           String returnString, boolean error) {
+        this(model, turtles);
+        this.trail = trail;
+        outcomes = outcomeOf(commandString, returnString, error);
+    }
+
+    // Creates a delta result; the maps and lists are freshly built by the tracker, so they are not copied again
+    Result(long sequence, Map<Integer, ImmutableTurtle> turtles, int backgroundColor, Map<String, Double> variables,
+           Set<String> removedVariables, ArrayList<String> userCommands, TrailBuffer trail, int trailStart,
+           List<CommandOutcome> outcomes) {
+        this.sequence = sequence;
+        this.turtles = turtles;
+        this.backgroundColor = backgroundColor;
+        this.variables = variables;
+        this.removedVariables = removedVariables;
+        this.userCommands = userCommands;
+        this.trail = trail;
+        this.trailStart = trailStart;
+        this.outcomes = outcomes;
+        delta = true;
+    }
+
+    // A result published while a command is still running has no command string, and no outcome yet
+    static List<CommandOutcome> outcomeOf(String commandString, String returnString, boolean error) {
+        return commandString == null ? List.of() : List.of(new CommandOutcome(commandString, returnString, error));
+    }
+
+    Result numbered(long sequence) {
+        this.sequence = sequence;
+        return this;
+    }
+
+    Result profiled(List<CommandProfile> profile) {
+        this.profile = profile;
+        return this;
     }
 
     /**
-     * Get the turtles in the environment.
+     * Combines this result with the one published after it, so that applying the combined result has the
+     * same effect as applying both in order. A later snapshot replaces everything before it; a later delta
+     * is applied on top. The outcomes of both are kept, in order, so every command's return value and
+     * error is still there.
+     * @param later the next result
+     * @return the combined result, numbered like the later one
+     */
+    public Result mergedWith(Result later) {
+        var mergedTurtles = new LinkedHashMap<Integer, ImmutableTurtle>();
+        var mergedVariables = new HashMap<String, Double>();
+        var removed = new HashSet<String>();
+        var mergedUserCommands = new LinkedHashSet<String>();
+        if (later.delta) {
+            mergedTurtles.putAll(turtles);
+            mergedVariables.putAll(variables);
+            removed.addAll(removedVariables);
+            mergedUserCommands.addAll(userCommands);
+        }
+        mergedTurtles.putAll(later.turtles);
+        mergedVariables.keySet().removeAll(later.removedVariables);
+        mergedVariables.putAll(later.variables);
+        removed.removeAll(later.variables.keySet());
+        removed.addAll(later.removedVariables);
+        mergedUserCommands.addAll(later.userCommands);
+        var mergedOutcomes = new ArrayList<CommandOutcome>(outcomes);
+        mergedOutcomes.addAll(later.outcomes);
+        var mergedTrail = later.trail != null ? later.trail : trail;
+        int mergedTrailStart;
+        if (later.trail == null) {
+            mergedTrailStart = later.delta ? trailStart : 0;
+        } else {
+            mergedTrailStart = later.delta ? Math.min(trailStart, later.trailStart) : later.trailStart;
+        }
+        var merged = new Result(later.sequence, mergedTurtles, later.backgroundColor, mergedVariables, removed,
+                new ArrayList<>(mergedUserCommands), mergedTrail, mergedTrailStart, mergedOutcomes);
+        merged.delta = delta && later.delta;
+        // The later result's profile, or its lack of one once profiling is off, is the current one
+        merged.profile = later.profile;
+        return merged;
+    }
+
+    /**
+     * Makes a result that changes nothing and only carries one of this result's outcomes, so a display that
+     * reads one outcome per result can be shown every outcome merged into this one.
+     * @param index the index of the outcome in getOutcomes()
+     * @return an empty delta result with the outcome, numbered, colored and profiled like this one
+     */
+    public Result outcomeOnly(int index) {
+        var only = new Result(sequence, Map.of(), backgroundColor, Map.of(), Set.of(), new ArrayList<>(), null, 0,
+                List.of(outcomes.get(index)));
+        only.profile = profile;
+        return only;
+    }
+
+    /**
+     * Get the turtles in the environment. For a delta result, only the turtles that changed.
      * @return a map of turtle ids to their immutable counterparts
      */
     public Map<Integer, ImmutableTurtle> getTurtles() {
@@ -59,31 +179,72 @@ public class Result {
     }
 
     /**
-     * Gets the original submitted command.
+     * Gets the trails kept in a trail buffer, in addition to the trails of the turtles themselves.
+     * @return a read-only trail buffer, or null if the trails are only on the turtles
+     */
+    public TrailBuffer getTrail() {
+        return trail;
+    }
+
+    /**
+     * Gets the index of the first segment in the trail buffer that is new in this result.
+     * @return 0 for a snapshot, otherwise the number of segments the previous result had
+     */
+    public int getTrailStart() {
+        return trailStart;
+    }
+
+    /**
+     * Gets the position of this result in the order results were published.
+     * @return the sequence number, starting at 1, or 0 if the result was not created by a ResultTracker
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Indicates whether this result only holds the changes since the previous result.
+     * @return true for a delta result, false for a full snapshot
+     */
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * Gets what each command this result covers produced, in the order the commands ran. A result published
+     * for one command has one outcome; a merged result has one per command merged into it.
+     * @return the outcomes, empty if the result was not published for a command
+     */
+    public List<CommandOutcome> getOutcomes() {
+        return Collections.unmodifiableList(outcomes);
+    }
+
+    /**
+     * Gets the original submitted command, the last one for a merged result.
      * @return the original submitted command
      */
     public String getCommandString() {
-        return commandString;
+        return outcomes.isEmpty() ? null : last().getCommandString();
     }
 
     /**
-     * Gets the return string (or error message) from command execution.
+     * Gets the return string (or error message) from command execution, the last one for a merged result.
      * @return the return string
      */
     public String getReturnString() {
-        return returnString;
+        return outcomes.isEmpty() ? null : last().getReturnString();
     }
 
     /**
-     * Gets the background color for the environment.
-     * @return the background color
+     * Gets the background color for the environment, packed as by TrailLines.
+     * @return the background color as an ARGB int
      */
-    public Color getBackgroundColor() {
+    public int getBackgroundArgb() {
         return backgroundColor;
     }
 
     /**
-     * Gets map of variables that exist in the environment.
+     * Gets map of variables that exist in the environment. For a delta result, only the ones added or changed.
      * @return the map of variables from name to value
      */
     public Map<String, Double> getVariables() {
@@ -91,7 +252,15 @@ public class Result {
     }
 
     /**
-     * Gets the list of user commands available in the environment.
+     * Gets the names of the variables removed since the previous result.
+     * @return the removed names, always empty for a snapshot
+     */
+    public Set<String> getRemovedVariables() {
+        return removedVariables;
+    }
+
+    /**
+     * Gets the list of user commands available in the environment. For a delta result, only the ones added.
      * @return a list of command names as strings
      */
     public List<String> getUserCommands() {
@@ -99,10 +268,22 @@ public class Result {
     }
 
     /**
-     * Indicates whether there was an error in command execution.
+     * Gets the commands that have taken the most time since profiling was turned on, hottest first.
+     * @return the profiles, or an empty list if the model is not being profiled
+     */
+    public List<CommandProfile> getProfile() {
+        return profile == null ? List.of() : profile;
+    }
+
+    /**
+     * Indicates whether there was an error in command execution, in the last command for a merged result.
      * @return true if there was an error, false otherwise
      */
     public boolean isError() {
-        return error;
+        return !outcomes.isEmpty() && last().isError();
+    }
+
+    private CommandOutcome last() {
+        return outcomes.get(outcomes.size() - 1);
     }
 }
@@ -0,0 +1,61 @@
+package model;
+
+import model.command.Command;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the result passed to the front end, as a full snapshot and as a delta after one more
+ * move, against the length of the trail and the number of variables in the model.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class ResultBenchmark {
+
+    @Param({"0", "10000", "1000000"})
+    private int segments;
+
+    @Param({"10", "10000"})
+    private int variables;
+
+    private Model model;
+    private ResultTracker tracker;
+    private Command move;
+
+    @Setup
+    public void setUp() {
+        var generator = new ProgramGenerator();
+        var parser = new CommandParser();
+        model = new Model();
+        for (Command c : parser.parse(generator.trail(segments) + generator.variables(variables), model)) {
+            c.execute(model);
+        }
+        move = parser.parse("fd 1", model).get(0);
+        tracker = new ResultTracker();
+        tracker.snapshot(model, null, "", "", false);
+    }
+
+    @Benchmark
+    public Result snapshot() {
+        return new Result(model, "fd 1", "1.0", false);
+    }
+
+    @Benchmark
+    public Result delta() {
+        move.execute(model);
+        return tracker.delta(model, null, "fd 1", "1.0", false);
+    }
+}
@@ -0,0 +1,92 @@
+package Controller;
+
+import javafx.animation.AnimationTimer;
+import model.Result;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Delivers results to the display at most once per frame. Results can be offered from any thread; every
+ * result offered between two frames is merged into one, so a long script or a replayed history only
+ * updates the display once per frame rather than once per command. Only the model state is coalesced: a merged
+ * result carries the outcome of every command merged into it, and the outcomes before the last one are handed to
+ * the display first as results of their own that change nothing, so every command still gets its return value
+ * or error shown.
+ * Keeps counts of the frames that delivered a result, the results merged into another one instead of
+ * being shown on their own, and the frames that were dropped because the application thread fell behind.
+ *
+ * @author agent
+ */
+public class ResultPublisher extends AnimationTimer {
+
+    private static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+    private Consumer<Result> display;
+    private AtomicReference<Result> pending;
+    private AtomicLong publishedFrames;
+    private AtomicLong mergedResults;
+    private AtomicLong droppedFrames;
+    private long lastFrame;
+
+    /**
+     * Create a publisher. It does not deliver anything until it is started.
+     * @param display shows a result, called on the JavaFX application thread
+     */
+    public ResultPublisher(Consumer<Result> display) {
+        this.display = display;
+        pending = new AtomicReference<>();
+        publishedFrames = new AtomicLong();
+        mergedResults = new AtomicLong();
+        droppedFrames = new AtomicLong();
+    }
+
+    /**
+     * Queues a result for the next frame, merging it into the result already queued if there is one.
+     * @param result the next result, which must follow every result offered before it
+     */
+    public void offer(Result result) {
+        var previous = pending.getAndAccumulate(result, (queued, next) -> queued == null ? next : queued.mergedWith(next));
+        if (previous != null) {
+            mergedResults.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void handle(long now) {
+        if (lastFrame != 0 && now - lastFrame > FRAME_NANOS * 3 / 2) {
+            droppedFrames.addAndGet((now - lastFrame) / FRAME_NANOS - 1);
+        }
+        lastFrame = now;
+        var result = pending.getAndSet(null);
+        if (result != null) {
+            for (int i = 0; i < result.getOutcomes().size() - 1; i++) {
+                display.accept(result.outcomeOnly(i));
+            }
+            display.accept(result);
+            publishedFrames.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of frames that delivered a result
+     */
+    public long getPublishedFrames() {
+        return publishedFrames.get();
+    }
+
+    /**
+     * @return the number of results that were merged into another result instead of being delivered on their own
+     */
+    public long getMergedResults() {
+        return mergedResults.get();
+    }
+
+    /**
+     * @return the number of frames that were missed because the application thread was busy
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+}
@@ -0,0 +1,112 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that merging results has the same effect as applying them one after another.
+ *
+ * @author agent
+ */
+public class ResultTest {
+
+    private static final int BACKGROUND = 0xff000000;
+
+    @Test
+    public void mergedDeltasApplyLikeBothInOrder() {
+        var first = delta(1, Map.of("a", 1.0, "b", 2.0), Set.of(), List.of("f"), null, 0, outcome("make :a 1", false));
+        var second = delta(2, Map.of("a", 3.0), Set.of("b"), List.of("g"), null, 0, outcome("bad", true));
+        var merged = first.mergedWith(second);
+        assertTrue(merged.isDelta());
+        assertEquals(2, merged.getSequence());
+        assertEquals(Map.of("a", 3.0), merged.getVariables());
+        assertEquals(Set.of("b"), merged.getRemovedVariables());
+        assertEquals(List.of("f", "g"), merged.getUserCommands());
+        assertEquals(2, merged.getOutcomes().size());
+        assertEquals("make :a 1", merged.getOutcomes().get(0).getCommandString());
+        assertEquals("bad", merged.getCommandString());
+        assertTrue(merged.isError());
+    }
+
+    @Test
+    public void variableSetAgainIsNoLongerRemoved() {
+        var first = delta(1, Map.of(), Set.of("b"), List.of(), null, 0, outcome("clear", false));
+        var second = delta(2, Map.of("b", 5.0), Set.of(), List.of(), null, 0, outcome("make :b 5", false));
+        var merged = first.mergedWith(second);
+        assertEquals(Map.of("b", 5.0), merged.getVariables());
+        assertTrue(merged.getRemovedVariables().isEmpty());
+    }
+
+    @Test
+    public void mergedTrailStartsAtTheEarliestNewSegment() {
+        var trail = new TrailBuffer();
+        var first = delta(1, Map.of(), Set.of(), List.of(), trail, 5, outcome("fd 1", false));
+        var second = delta(2, Map.of(), Set.of(), List.of(), trail, 8, outcome("fd 2", false));
+        var merged = first.mergedWith(second);
+        assertSame(trail, merged.getTrail());
+        assertEquals(5, merged.getTrailStart());
+        var unchanged = delta(3, Map.of(), Set.of(), List.of(), null, 0, outcome("make :a 1", false));
+        merged = merged.mergedWith(unchanged);
+        assertSame(trail, merged.getTrail());
+        assertEquals(5, merged.getTrailStart());
+    }
+
+    @Test
+    public void laterSnapshotReplacesEarlierDelta() {
+        var tracker = new ResultTracker();
+        var model = new Model();
+        var snapshot = tracker.snapshot(model, Map.of(), null, "cs", "", false);
+        var earlier = delta(0, Map.of("gone", 1.0), Set.of("x"), List.of("f"), null, 0, outcome("make :gone 1", false));
+        var merged = earlier.mergedWith(snapshot);
+        assertFalse(merged.isDelta());
+        assertEquals(snapshot.getVariables(), merged.getVariables());
+        assertTrue(merged.getRemovedVariables().isEmpty());
+        assertEquals(snapshot.getUserCommands(), merged.getUserCommands());
+        assertEquals(2, merged.getOutcomes().size());
+        assertNull(merged.getTrail());
+    }
+
+    @Test
+    public void progressResultAddsNoOutcome() {
+        var tracker = new ResultTracker();
+        var model = new Model();
+        tracker.snapshot(model, Map.of(), null, "cs", "", false);
+        var progress = tracker.delta(model, null, null, null, "", false);
+        assertTrue(progress.getOutcomes().isEmpty());
+        var finished = tracker.delta(model, null, null, "repeat 1000 [ fd 1 ]", "1.0", false);
+        assertEquals(1, progress.mergedWith(finished).getOutcomes().size());
+    }
+
+    @Test
+    public void outcomeOnlyResultChangesNothing() {
+        var first = delta(1, Map.of("a", 1.0), Set.of(), List.of("f"), null, 0, outcome("make :a 1", false));
+        var second = delta(2, Map.of(), Set.of(), List.of(), null, 0, outcome("bad", true));
+        var only = first.mergedWith(second).outcomeOnly(0);
+        assertTrue(only.isDelta());
+        assertTrue(only.getVariables().isEmpty());
+        assertTrue(only.getUserCommands().isEmpty());
+        assertNull(only.getTrail());
+        assertEquals("make :a 1", only.getCommandString());
+        assertFalse(only.isError());
+    }
+
+    private static Result delta(long sequence, Map<String, Double> variables, Set<String> removed,
+                                List<String> userCommands, TrailBuffer trail, int trailStart, CommandOutcome outcome) {
+        return new Result(sequence, Map.of(), BACKGROUND, variables, removed, new ArrayList<>(userCommands), trail,
+                trailStart, List.of(outcome));
+    }
+
+    private static CommandOutcome outcome(String command, boolean error) {
+        return new CommandOutcome(command, error ? "error" : "1.0", error);
+    }
+}
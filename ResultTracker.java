@@ -0,0 +1,155 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the results passed to the front end, numbering them in order.
+ * A snapshot result holds the whole model. A delta result only holds what changed since the result before
+ * it: the turtles whose position, heading, visibility or trail changed, the variables that were added or
+ * changed and the names of the ones removed, the user commands that were added, and the trail segments
+ * drawn since. Applying every delta in sequence to the last snapshot gives the current model.
+ * Copying the turtles out of the model is the costly part, so the caller can say that no turtle changed and
+ * the tracker will not read them at all. A trail buffer in a different epoch from the last one was cleared,
+ * and a delta then carries all of it.
+ *
+ * @author agent
+ */
+public class ResultTracker {
+
+    private long sequence;
+    private Map<String, Double> variables;
+    private Set<String> userCommands;
+    private Map<Integer, double[]> turtleStates;
+    private int trailSize;
+    private long trailEpoch;
+
+    /**
+     * Create a tracker that has not published any results yet.
+     */
+    public ResultTracker() {
+        variables = new HashMap<>();
+        userCommands = new HashSet<>();
+        turtleStates = new HashMap<>();
+    }
+
+    /**
+     * Creates a result holding the whole model and remembers it as the state later deltas are relative to.
+     * @param model the model from which to create the result
+     * @param trail a snapshot of the trails kept in a trail buffer, or null if there are none
+     * @param commandString the original command string that the user submitted
+     * @param returnString the return values in string form (or could be an error message)
+     * @param error whether or not there was an error in command execution
+     * @return the result
+     */
+    public Result snapshot(Model model, TrailBuffer trail, String commandString, String returnString, boolean error) {
+        return snapshot(model, model.getTurtles().getImmutableTurtles(), trail, commandString, returnString, error);
+    }
+
+    /**
+     * Creates a result holding the whole model from turtles already copied out of it, and remembers it as the
+     * state later deltas are relative to.
+     * @param model the model from which to create the result
+     * @param turtles the model's immutable turtles
+     * @param trail a snapshot of the trails kept in a trail buffer, or null if there are none
+     * @param commandString the original command string that the user submitted
+     * @param returnString the return values in string form (or could be an error message)
+     * @param error whether or not there was an error in command execution
+     * @return the result
+     */
+    public Result snapshot(Model model, Map<Integer, ImmutableTurtle> turtles, TrailBuffer trail, String commandString,
+                           String returnString, boolean error) {
+        var result = new Result(model, turtles, trail, commandString, returnString, error);
+        variables = new HashMap<>(result.getVariables());
+        userCommands = new HashSet<>(result.getUserCommands());
+        turtleStates.clear();
+        for (var entry : result.getTurtles().entrySet()) {
+            turtleStates.put(entry.getKey(), state(entry.getValue()));
+        }
+        trailSize = trail == null ? 0 : trail.size();
+        trailEpoch = trail == null ? 0 : trail.getEpoch();
+        return result.numbered(++sequence);
+    }
+
+    /**
+     * Creates a result holding only what changed since the last result.
+     * @param model the model from which to create the result
+     * @param trail a snapshot of the trails kept in a trail buffer, or null if there are none
+     * @param commandString the original command string that the user submitted
+     * @param returnString the return values in string form (or could be an error message)
+     * @param error whether or not there was an error in command execution
+     * @return the result
+     */
+    public Result delta(Model model, TrailBuffer trail, String commandString, String returnString, boolean error) {
+        return delta(model, model.getTurtles().getImmutableTurtles(), trail, commandString, returnString, error);
+    }
+
+    /**
+     * Creates a result holding only what changed since the last result, comparing only the given turtles.
+     * @param model the model from which to create the result
+     * @param turtles the model's immutable turtles, or null if no turtle can have changed since the last result
+     * @param trail a snapshot of the trails kept in a trail buffer, or null if there are none
+     * @param commandString the original command string that the user submitted, or null if the command is still
+     *                      running and the result has no outcome yet
+     * @param returnString the return values in string form (or could be an error message)
+     * @param error whether or not there was an error in command execution
+     * @return the result
+     */
+    public Result delta(Model model, Map<Integer, ImmutableTurtle> turtles, TrailBuffer trail, String commandString,
+                        String returnString, boolean error) {
+        var changedVariables = new HashMap<String, Double>();
+        for (var entry : model.getVariables().entrySet()) {
+            var old = variables.put(entry.getKey(), entry.getValue());
+            if (!entry.getValue().equals(old)) {
+                changedVariables.put(entry.getKey(), entry.getValue());
+            }
+        }
+        var removedVariables = new HashSet<String>();
+        for (Iterator<String> names = variables.keySet().iterator(); names.hasNext(); ) {
+            var name = names.next();
+            if (!model.getVariables().containsKey(name)) {
+                removedVariables.add(name);
+                names.remove();
+            }
+        }
+        var addedUserCommands = new ArrayList<String>();
+        for (String name : model.getUserInstructions().keySet()) {
+            if (userCommands.add(name)) {
+                addedUserCommands.add(name);
+            }
+        }
+        var changedTurtles = new LinkedHashMap<Integer, ImmutableTurtle>();
+        if (turtles != null) {
+            for (var entry : turtles.entrySet()) {
+                var state = state(entry.getValue());
+                if (!Arrays.equals(state, turtleStates.put(entry.getKey(), state))) {
+                    changedTurtles.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        int trailStart = trail == null || trail.getEpoch() != trailEpoch ? 0 : trailSize;
+        trailSize = trail == null ? 0 : trail.size();
+        trailEpoch = trail == null ? 0 : trail.getEpoch();
+        return new Result(++sequence, changedTurtles, TrailLines.background(model), changedVariables, removedVariables,
+                addedUserCommands, trail, trailStart, Result.outcomeOf(commandString, returnString, error));
+    }
+
+    /**
+     * @return the sequence number of the last result created
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    private double[] state(ImmutableTurtle turtle) {
+        return new double[] {turtle.getX(), turtle.getY(), turtle.getHeading(), turtle.isVisible() ? 1 : 0,
+                TrailLines.count(turtle)};
+    }
+}
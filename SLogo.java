@@ -2,9 +2,16 @@ package Controller;
 
 
 import GUI.GUIFactory;
+import GUI.TabbedGUI.Tabs.Windows.CommandWindows.CommandLine;
+import GUI.TabbedGUI.Tabs.Windows.WindowOptions.ProfilerDisplay;
 import javafx.application.Application;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.scene.Node;
+import javafx.scene.Scene;
 import javafx.stage.Stage;
-import model.ModelController;
+import model.ModelWorker;
+import model.Result;
+import model.command.ExecutionBudget;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -21,12 +28,32 @@ import static GUI.Events.SubmitEvent.SUBMIT;
  */
 public class SLogo extends Application {
 
-    private Map<String,ModelController> models = new HashMap<>();
+    private Map<String,ModelWorker> models = new HashMap<>();
+    private Map<String,ResultPublisher> publishers = new HashMap<>();
+    private Map<String,ProfilerDisplay> profilers = new HashMap<>();
+    private Map<CommandLine,String> commandLineTabs = new HashMap<>();
     private static final String TITLE = "SLogo";
+    private static final long TIME_LIMIT_MILLIS = 60_000;
+    private static final long PROGRESS_INTERVAL_MILLIS = 250;
+    private static final String PROFILER_TITLE = "SLogo profiler ";
+    private static final double PROFILER_WIDTH = 480;
+    private static final double PROFILER_HEIGHT = 400;
+    private static final String OPTIMIZE_FLAG = "slogo.optimize";
+    private static final String OPTIMIZE_SHOW = "show";
+    private static final String PROFILE_FLAG = "slogo.profile";
 
     /**
      * In this method the initial GUI window is created, and listeners are added to create or close ModelController instances
-     * when tab events are fired.
+     * when tab events are fired. Each tab's model runs on a worker thread of its own, and its results are handed
+     * back to the application thread by a publisher that shows at most one merged result per frame.
+     * A command may run for at most TIME_LIMIT_MILLIS, showing what it has drawn every PROGRESS_INTERVAL_MILLIS,
+     * and the stop event of the command line it was submitted from stops it sooner. A command line is matched
+     * to its tab by the submit events it sends, since it has focus when a command is submitted from it.
+     * The first result a tab publishes with a profile opens a profiler window for the tab, which then shows
+     * every later result's profile until the tab is closed.
+     * The optimizer and the profiler are switched on for every tab by launch flags rather than by commands,
+     * so they never take a command name away from the user: {@code -Dslogo.optimize=true} (or {@code show},
+     * which also appends the optimized trees to each return string) and {@code -Dslogo.profile=true}.
      * @param stage the stage for the JavaFX application
      */
     @Override
@@ -34,16 +61,72 @@ public class SLogo extends Application {
         var gui = GUIFactory.makeInstance(stage);
         stage.setTitle(TITLE);
         stage.show();
-        gui.addGUIEventFilter(CLOSE, event -> models.remove(event.getTabID()));
+        gui.addGUIEventFilter(CLOSE, event -> {
+            var model = models.remove(event.getTabID());
+            if (model != null)
+                model.shutdown();
+            var publisher = publishers.remove(event.getTabID());
+            if (publisher != null)
+                publisher.stop();
+            var profiler = profilers.remove(event.getTabID());
+            if (profiler != null)
+                profiler.getScene().getWindow().hide();
+            commandLineTabs.values().removeIf(event.getTabID()::equals);
+        });
         gui.addGUIEventFilter(OPEN, event -> {
             if (models.containsKey(event.getTabID()))
                 return;
-            var model = new ModelController();
-            model.addResultHandler(event2 -> gui.addResult(event2.getResult(), event.getTabID()));
+            var model = new ModelWorker(event.getTabID());
+            var publisher = new ResultPublisher(result -> {
+                gui.addResult(result, event.getTabID());
+                showProfile(result, event.getTabID());
+            });
+            model.getController().addResultListener(publisher::offer);
+            model.getController().setProgressInterval(PROGRESS_INTERVAL_MILLIS);
+            model.getController().setExecutionBudget(ExecutionBudget.UNLIMITED, TIME_LIMIT_MILLIS);
+            var optimize = System.getProperty(OPTIMIZE_FLAG, "");
+            model.getController().setOptimization(Boolean.parseBoolean(optimize) || optimize.equals(OPTIMIZE_SHOW),
+                    optimize.equals(OPTIMIZE_SHOW));
+            model.getController().setProfiling(Boolean.getBoolean(PROFILE_FLAG));
             models.put(event.getTabID(), model);
-            model.execute("ct"); // create the first turtle
+            publishers.put(event.getTabID(), publisher);
+            publisher.start();
+            model.submit("ct"); // create the first turtle
+        });
+        gui.addGUIEventFilter(SUBMIT, event -> {
+            var commandLine = enclosingCommandLine(stage.getScene().getFocusOwner());
+            if (commandLine != null)
+                commandLineTabs.put(commandLine, event.getTabID());
+            models.get(event.getTabID()).submit(event.getCommandString());
         });
-        gui.addGUIEventFilter(SUBMIT, event -> models.get(event.getTabID()).execute(event.getCommandString()));
+        stage.addEventHandler(CommandLine.STOP, event -> {
+            var model = models.get(commandLineTabs.get(event.getTarget()));
+            if (model != null)
+                model.cancel();
+        });
+    }
+
+    private CommandLine enclosingCommandLine(Node node) {
+        while (node != null && !(node instanceof CommandLine))
+            node = node.getParent();
+        return (CommandLine) node;
+    }
+
+    private void showProfile(Result result, String tabID) {
+        var profiler = profilers.get(tabID);
+        if (profiler == null) {
+            if (result.getProfile().isEmpty())
+                return;
+            profiler = new ProfilerDisplay(PROFILER_WIDTH, PROFILER_HEIGHT, new SimpleStringProperty());
+            var stage = new Stage();
+            stage.setTitle(PROFILER_TITLE + tabID);
+            stage.setScene(new Scene(profiler, PROFILER_WIDTH, PROFILER_HEIGHT));
+            stage.show();
+            profilers.put(tabID, profiler);
+        } else if (!result.getProfile().isEmpty() && !profiler.getScene().getWindow().isShowing()) {
+            ((Stage) profiler.getScene().getWindow()).show();
+        }
+        profiler.addResult(result);
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,66 @@
+package model.command.control;
+
+import model.Model;
+import model.command.Command;
+
+/**
+ * The body of a user command together with the frame its parameters and loop counters were resolved to.
+ * Defining a user command stores this in place of the body the parser built, so every call site finds
+ * the frame along with the body.
+ *
+ * @author agent
+ */
+public class ScopedBody extends Command {
+
+    private static final double[] NO_ARGUMENTS = new double[0];
+
+    private Frame frame;
+
+    /**
+     * Create a scoped body.
+     * @param frame the frame the body's parameters and loop counters were resolved to
+     * @param body the body of the user command
+     */
+    public ScopedBody(Frame frame, Command body) {
+        super();
+        this.frame = frame;
+        addParameter(body);
+        argCount = 1;
+    }
+
+    /**
+     * @return the frame the body's parameters and loop counters were resolved to
+     */
+    public Frame getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return the body of the user command
+     */
+    public Command getBody() {
+        return parameters.get(0);
+    }
+
+    @Override
+    public double execute(Model model) {
+        return invoke(model, NO_ARGUMENTS);
+    }
+
+    /**
+     * Runs the body in new slots holding the arguments, so the call has a scope of its own.
+     * @param model the model on which to execute the body
+     * @param arguments the values of the parameters, in order
+     * @return the result of the body's execution
+     */
+    public double invoke(Model model, double[] arguments) {
+        var slots = new double[frame.size()];
+        System.arraycopy(arguments, 0, slots, 0, arguments.length);
+        var previous = frame.enter(slots);
+        try {
+            return parameters.get(0).execute(model);
+        } finally {
+            frame.exit(previous);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package model;
+
+import model.command.Command;
+import model.command.ValueCommand;
+import model.command.control.For;
+import model.command.control.Frame;
+import model.command.control.LocalVariable;
+import model.command.control.MakeUserInstruction;
+import model.command.control.ScopedBody;
+import model.command.control.UserCommand;
+import model.command.control.Variable;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Resolves variables to frame slots once a command tree is parsed, so both execution engines read and write
+ * them in {@code double[]} frames instead of the model's variables.
+ * Scoping is lexical. A user command's parameters are visible in its body and nowhere else, and a for loop's
+ * counter is visible in the loop's body; every other variable is global and stays in the model's variables,
+ * where results see it. The body of a {@code to} definition gets a frame of its own, with the parameters in the
+ * first slots, and is wrapped in a ScopedBody so every call finds that frame. Each top-level tree gets a frame
+ * for its loop counters.
+ * Variables naming a slot are replaced by LocalVariable nodes. The arguments of a user command call are resolved
+ * in the caller's scope, but the callee's parameter list and body are left alone, since they were resolved when
+ * the user command was defined. The tree is walked with an explicit stack, so deep nesting is fine.
+ *
+ * @author agent
+ */
+public class SlotResolver {
+
+    private static final int FOR_FIRST_GROUP_LENGTH = 4;
+
+    private SlotResolver() {
+    }
+
+    /**
+     * Resolves the variables of a freshly parsed tree in place.
+     * @param root the root of the tree
+     * @return the root, for chaining
+     */
+    public static Command resolve(Command root) {
+        var pending = new ArrayDeque<Visit>();
+        pending.push(new Visit(root, null, 0, new Scope(Frame.topLevel())));
+        drain(pending);
+        return root;
+    }
+
+    /**
+     * Wraps the body of a user command that was defined without going through the parser, resolving it with
+     * the given parameters. A body that was already resolved this way keeps the frame it was given.
+     * @param parameters the user command's parameter list
+     * @param body the body of the user command
+     * @return the resolved body
+     */
+    public static ScopedBody scope(List<Command> parameters, Command body) {
+        var resolved = frameOf(body);
+        if (resolved != null) {
+            return new ScopedBody(resolved, body);
+        }
+        var frame = Frame.perCall(parameters.size());
+        var scope = new Scope(frame);
+        for (int i = 0; i < parameters.size(); i++) {
+            if (parameters.get(i) instanceof ValueCommand) {
+                scope = scope.bind(nameOf(parameters.get(i)), i);
+            }
+        }
+        var scoped = new ScopedBody(frame, body);
+        var pending = new ArrayDeque<Visit>();
+        pending.push(new Visit(body, scoped, 0, scope));
+        drain(pending);
+        return scoped;
+    }
+
+    /**
+     * Finds the frame a tree's own variables were resolved to, ignoring the user command bodies it defines or
+     * calls, which have frames of their own.
+     * @param root the root of a resolved tree
+     * @return the frame, or null if no variable in the tree was resolved to a slot
+     */
+    public static Frame frameOf(Command root) {
+        var pending = new ArrayDeque<Command>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            var command = pending.pop();
+            if (command instanceof LocalVariable) {
+                return ((LocalVariable) command).getFrame();
+            } else if (command instanceof UserCommand) {
+                var parameters = command.getParameters();
+                if (parameters.size() > 2) {
+                    pending.addAll(parameters.get(2).getParameters());
+                }
+            } else if (!(command instanceof MakeUserInstruction) && !(command instanceof ScopedBody)) {
+                pending.addAll(command.getParameters());
+            }
+        }
+        return null;
+    }
+
+    private static void drain(ArrayDeque<Visit> pending) {
+        while (!pending.isEmpty()) {
+            var visit = pending.pop();
+            var command = visit.command;
+            if (command instanceof Variable && visit.parent != null) {
+                resolveVariable(visit);
+            } else if (command instanceof For) {
+                resolveFor(command, visit.scope, pending);
+            } else if (command instanceof MakeUserInstruction) {
+                resolveDefinition(command, pending);
+            } else if (command instanceof UserCommand) {
+                // Only the arguments belong to the caller, the body was resolved where it was defined
+                var parameters = command.getParameters();
+                if (parameters.size() > 2) {
+                    visitChildren(parameters.get(2), visit.scope, pending);
+                }
+            } else if (!(command instanceof ScopedBody)) {
+                visitChildren(command, visit.scope, pending);
+            }
+        }
+    }
+
+    private static void resolveVariable(Visit visit) {
+        var name = nameOf(visit.command);
+        int slot = visit.scope.slot(name);
+        if (slot >= 0) {
+            visit.parent.setParameter(visit.index, new LocalVariable(name, visit.scope.frame, slot));
+        }
+    }
+
+    /**
+     * Resolves the bounds of a for loop in the enclosing scope, and its body with the counter bound to a slot.
+     * A counter with the same name as a variable already in scope shares that variable's slot, just as it
+     * shared the variable before.
+     */
+    private static void resolveFor(Command loop, Scope scope, ArrayDeque<Visit> pending) {
+        var parameters = loop.getParameters();
+        var group = parameters.isEmpty() ? null : parameters.get(0);
+        if (parameters.size() < 2 || group.getParameters().size() != FOR_FIRST_GROUP_LENGTH
+                || !(group.getParameters().get(0) instanceof ValueCommand)) {
+            visitChildren(loop, scope, pending);
+            return;
+        }
+        var name = nameOf(group.getParameters().get(0));
+        int slot = scope.slot(name);
+        var bodyScope = scope;
+        if (slot < 0) {
+            slot = scope.frame.reserve(1);
+            bodyScope = scope.bind(name, slot);
+        }
+        group.setParameter(0, new LocalVariable(name, scope.frame, slot));
+        pending.push(new Visit(parameters.get(1), loop, 1, bodyScope));
+        for (int i = FOR_FIRST_GROUP_LENGTH - 1; i > 0; i--) {
+            pending.push(new Visit(group.getParameters().get(i), group, i, scope));
+        }
+    }
+
+    /**
+     * Gives a user command definition's body a frame of its own, with only the parameters in scope.
+     */
+    private static void resolveDefinition(Command definition, ArrayDeque<Visit> pending) {
+        var parameters = definition.getParameters();
+        if (parameters.size() < 2 || parameters.get(1) instanceof ScopedBody) {
+            return;
+        }
+        var variables = parameters.get(0).getParameters();
+        var frame = Frame.perCall(variables.size());
+        var scope = new Scope(frame);
+        for (int i = 0; i < variables.size(); i++) {
+            if (variables.get(i) instanceof ValueCommand) {
+                scope = scope.bind(nameOf(variables.get(i)), i);
+            }
+        }
+        var scoped = new ScopedBody(frame, parameters.get(1));
+        definition.setParameter(1, scoped);
+        pending.push(new Visit(scoped.getBody(), scoped, 0, scope));
+    }
+
+    private static void visitChildren(Command command, Scope scope, ArrayDeque<Visit> pending) {
+        var children = command.getParameters();
+        for (int i = children.size() - 1; i >= 0; i--) {
+            pending.push(new Visit(children.get(i), command, i, scope));
+        }
+    }
+
+    private static String nameOf(Command variable) {
+        return String.valueOf(((ValueCommand<?>) variable).getValue());
+    }
+
+    /**
+     * One command still to resolve, with where it sits in its parent so a variable can be replaced.
+     */
+    private static class Visit {
+        private Command command;
+        private Command parent;
+        private int index;
+        private Scope scope;
+
+        private Visit(Command command, Command parent, int index, Scope scope) {
+            this.command = command;
+            this.parent = parent;
+            this.index = index;
+            this.scope = scope;
+        }
+    }
+
+    /**
+     * The names in scope at one point of the tree, each bound to a slot of the scope's frame. Binding a name
+     * makes a new scope, so the bindings of a loop body disappear along with the visits inside it, and a later
+     * binding of a name hides an earlier one.
+     */
+    private static class Scope {
+        private Frame frame;
+        private String name;
+        private int slot;
+        private Scope enclosing;
+
+        private Scope(Frame frame) {
+            this(frame, null, -1, null);
+        }
+
+        private Scope(Frame frame, String name, int slot, Scope enclosing) {
+            this.frame = frame;
+            this.name = name;
+            this.slot = slot;
+            this.enclosing = enclosing;
+        }
+
+        private Scope bind(String name, int slot) {
+            return new Scope(frame, name, slot, this);
+        }
+
+        private int slot(String name) {
+            for (var scope = this; scope != null; scope = scope.enclosing) {
+                if (name.equals(scope.name)) {
+                    return scope.slot;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package GUI.TabbedGUI.Tabs.Windows.TurtleView;
+
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import model.TrailBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Renders a trail buffer as square tiles that are rasterized once and cached, so panning and zooming over
+ * a drawing with millions of segments only draws a handful of images per frame.
+ * Segments are binned into a grid of world-space cells as they arrive, which lets a tile find the segments
+ * that might cross it without scanning the whole buffer. Tiles are rasterized per zoom level, a power of
+ * two, and stretched by at most a factor of two to the exact zoom. New segments only throw away the cached
+ * tiles they cross, and the least recently drawn tiles are evicted once the cache is full.
+ * When a tile would need more than LOD_SEGMENT_LIMIT segments, as happens when zoomed far out, it is drawn
+ * as one square per grid cell instead, shaded by how many segments the cell holds. Segments too large to bin
+ * are kept apart and always drawn as lines, on top of the squares.
+ *
+ * @author agent
+ */
+public class TileCache {
+
+    public static final int TILE_PIXELS = 256;
+    public static final int DEFAULT_CAPACITY = 128;
+    public static final int LOD_SEGMENT_LIMIT = 20000;
+
+    private static final double CELL_SIZE = 64;
+    private static final int LARGE_SEGMENT_CELLS = 64;
+    private static final double SEGMENTS_PER_OPAQUE_CELL = 32;
+
+    private Map<Long, Cell> cells;
+    private List<Integer> largeSegments;
+    private Map<TileKey, Image> tiles;
+    private Set<Integer> levels;
+    private Canvas scratch;
+    private TrailBuffer trail;
+    private int indexed;
+
+    /**
+     * Create an empty tile cache that holds DEFAULT_CAPACITY tiles.
+     */
+    public TileCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty tile cache.
+     * @param capacity the number of rasterized tiles to keep
+     */
+    public TileCache(int capacity) {
+        cells = new HashMap<>();
+        largeSegments = new ArrayList<>();
+        tiles = new LinkedHashMap<>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TileKey, Image> eldest) {
+                return size() > capacity;
+            }
+        };
+        levels = new HashSet<>();
+        scratch = new Canvas(TILE_PIXELS, TILE_PIXELS);
+    }
+
+    /**
+     * Indexes the segments added to the trail since the last update and throws away the tiles they cross.
+     * A trail in a different epoch from the last one was cleared or replaced, so the cache starts over.
+     * @param newTrail the latest snapshot of the trail buffer
+     */
+    public void update(TrailBuffer newTrail) {
+        if (trail != null && newTrail.getEpoch() != trail.getEpoch()) {
+            clear();
+        }
+        trail = newTrail;
+        var touched = new HashSet<Long>();
+        for (int i = indexed; i < trail.size(); i++) {
+            index(i, touched);
+        }
+        indexed = trail.size();
+        invalidate(touched);
+    }
+
+    /**
+     * Removes every segment and tile.
+     */
+    public void clear() {
+        cells.clear();
+        largeSegments.clear();
+        tiles.clear();
+        levels.clear();
+        indexed = 0;
+    }
+
+    /**
+     * Draws the tiles that are visible in a viewport, rasterizing the ones that are not cached.
+     * @param gc where to draw
+     * @param scale the number of pixels per world unit
+     * @param centerX the world x coordinate at the center of the viewport
+     * @param centerY the world y coordinate at the center of the viewport
+     * @param width the width of the viewport in pixels
+     * @param height the height of the viewport in pixels
+     */
+    public void draw(GraphicsContext gc, double scale, double centerX, double centerY, double width, double height) {
+        if (trail == null) {
+            return;
+        }
+        int level = (int) Math.floor(Math.log(scale) / Math.log(2));
+        double tileWorld = TILE_PIXELS / Math.pow(2, level);
+        double halfWidth = width / 2 / scale;
+        double halfHeight = height / 2 / scale;
+        long firstX = (long) Math.floor((centerX - halfWidth) / tileWorld);
+        long lastX = (long) Math.floor((centerX + halfWidth) / tileWorld);
+        long firstY = (long) Math.floor((centerY - halfHeight) / tileWorld);
+        long lastY = (long) Math.floor((centerY + halfHeight) / tileWorld);
+        double size = tileWorld * scale;
+        for (long tx = firstX; tx <= lastX; tx++) {
+            for (long ty = firstY; ty <= lastY; ty++) {
+                var image = tile(new TileKey(level, tx, ty), tileWorld);
+                double left = (tx * tileWorld - centerX) * scale + width / 2;
+                double top = height / 2 - ((ty + 1) * tileWorld - centerY) * scale;
+                gc.drawImage(image, left, top, size, size);
+            }
+        }
+    }
+
+    private Image tile(TileKey key, double tileWorld) {
+        var image = tiles.get(key);
+        if (image == null) {
+            image = rasterize(key, tileWorld);
+            tiles.put(key, image);
+            levels.add(key.level);
+        }
+        return image;
+    }
+
+    private Image rasterize(TileKey key, double tileWorld) {
+        double minX = key.x * tileWorld;
+        double minY = key.y * tileWorld;
+        double pixels = TILE_PIXELS / tileWorld;
+        GraphicsContext gc = scratch.getGraphicsContext2D();
+        gc.clearRect(0, 0, TILE_PIXELS, TILE_PIXELS);
+        var overlapping = cellsIn(minX, minY, minX + tileWorld, minY + tileWorld);
+        int count = largeSegments.size();
+        for (var cell : overlapping.values()) {
+            count += cell.size;
+        }
+        if (count > LOD_SEGMENT_LIMIT) {
+            drawDensity(gc, overlapping, minX, minY, pixels);
+            for (int i : largeSegments) {
+                if (trail.intersects(i, minX, minY, minX + tileWorld, minY + tileWorld)) {
+                    drawSegment(gc, i, minX, minY, pixels);
+                }
+            }
+        } else {
+            for (int i : segmentsIn(overlapping, minX, minY, minX + tileWorld, minY + tileWorld)) {
+                drawSegment(gc, i, minX, minY, pixels);
+            }
+        }
+        var parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        return scratch.snapshot(parameters, null);
+    }
+
+    private void drawSegment(GraphicsContext gc, int i, double minX, double minY, double pixels) {
+        gc.setStroke(TrailColors.toColor(trail.getColor(i)));
+        gc.setLineWidth(trail.getWidth(i));
+        gc.strokeLine((trail.getStartX(i) - minX) * pixels, TILE_PIXELS - (trail.getStartY(i) - minY) * pixels,
+                (trail.getEndX(i) - minX) * pixels, TILE_PIXELS - (trail.getEndY(i) - minY) * pixels);
+    }
+
+    private void drawDensity(GraphicsContext gc, Map<Long, Cell> overlapping, double minX, double minY, double pixels) {
+        double cellPixels = Math.max(1, CELL_SIZE * pixels);
+        for (var entry : overlapping.entrySet()) {
+            long cx = entry.getKey() >> 32;
+            long cy = (int) (long) entry.getKey();
+            var color = TrailColors.toColor(entry.getValue().color);
+            gc.setFill(Color.color(color.getRed(), color.getGreen(), color.getBlue(),
+                    Math.min(1, entry.getValue().size / SEGMENTS_PER_OPAQUE_CELL)));
+            gc.fillRect((cx * CELL_SIZE - minX) * pixels, TILE_PIXELS - ((cy + 1) * CELL_SIZE - minY) * pixels,
+                    cellPixels, cellPixels);
+        }
+    }
+
+    /**
+     * Finds the cells overlapping a world rectangle, scanning whichever is smaller of the rectangle and the index.
+     */
+    private Map<Long, Cell> cellsIn(double minX, double minY, double maxX, double maxY) {
+        long firstX = cell(minX);
+        long lastX = cell(maxX);
+        long firstY = cell(minY);
+        long lastY = cell(maxY);
+        var found = new HashMap<Long, Cell>();
+        if ((lastX - firstX + 1) * (lastY - firstY + 1) > cells.size()) {
+            for (var entry : cells.entrySet()) {
+                long cx = entry.getKey() >> 32;
+                long cy = (int) (long) entry.getKey();
+                if (cx >= firstX && cx <= lastX && cy >= firstY && cy <= lastY) {
+                    found.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return found;
+        }
+        for (long cx = firstX; cx <= lastX; cx++) {
+            for (long cy = firstY; cy <= lastY; cy++) {
+                var c = cells.get(key(cx, cy));
+                if (c != null) {
+                    found.put(key(cx, cy), c);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the segments crossing a world rectangle, in the order they were drawn and without duplicates
+     */
+    private int[] segmentsIn(Map<Long, Cell> overlapping, double minX, double minY, double maxX, double maxY) {
+        int count = largeSegments.size();
+        for (var cell : overlapping.values()) {
+            count += cell.size;
+        }
+        var segments = new int[count];
+        int n = 0;
+        for (int i : largeSegments) {
+            segments[n++] = i;
+        }
+        for (var cell : overlapping.values()) {
+            System.arraycopy(cell.segments, 0, segments, n, cell.size);
+            n += cell.size;
+        }
+        Arrays.sort(segments);
+        int distinct = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if ((i == 0 || segments[i] != segments[i - 1]) && trail.intersects(segments[i], minX, minY, maxX, maxY)) {
+                segments[distinct++] = segments[i];
+            }
+        }
+        return Arrays.copyOf(segments, distinct);
+    }
+
+    private void index(int i, Set<Long> touched) {
+        double pad = trail.getWidth(i) / 2;
+        double minX = Math.min(trail.getStartX(i), trail.getEndX(i)) - pad;
+        double maxX = Math.max(trail.getStartX(i), trail.getEndX(i)) + pad;
+        double minY = Math.min(trail.getStartY(i), trail.getEndY(i)) - pad;
+        double maxY = Math.max(trail.getStartY(i), trail.getEndY(i)) + pad;
+        long firstX = cell(minX);
+        long lastX = cell(maxX);
+        long firstY = cell(minY);
+        long lastY = cell(maxY);
+        if ((lastX - firstX + 1) * (lastY - firstY + 1) > LARGE_SEGMENT_CELLS) {
+            largeSegments.add(i);
+            invalidate(minX, minY, maxX, maxY);
+            return;
+        }
+        for (long cx = firstX; cx <= lastX; cx++) {
+            for (long cy = firstY; cy <= lastY; cy++) {
+                cells.computeIfAbsent(key(cx, cy), k -> new Cell()).add(i, trail.getColor(i));
+                touched.add(key(cx, cy));
+            }
+        }
+    }
+
+    /**
+     * Removes the cached tiles, at every zoom level, that overlap any of the touched cells.
+     */
+    private void invalidate(Set<Long> touched) {
+        if (tiles.isEmpty()) {
+            return;
+        }
+        for (long cell : touched) {
+            double minX = (cell >> 32) * CELL_SIZE;
+            double minY = (int) cell * CELL_SIZE;
+            invalidate(minX, minY, minX + CELL_SIZE, minY + CELL_SIZE);
+        }
+    }
+
+    /**
+     * Removes the cached tiles, at every zoom level, that overlap a world rectangle, scanning whichever is
+     * smaller of the tiles under the rectangle and the cache.
+     */
+    private void invalidate(double minX, double minY, double maxX, double maxY) {
+        for (int level : levels) {
+            if (tiles.isEmpty()) {
+                return;
+            }
+            double tileWorld = TILE_PIXELS / Math.pow(2, level);
+            long firstX = (long) Math.floor(minX / tileWorld);
+            long lastX = (long) Math.floor(maxX / tileWorld);
+            long firstY = (long) Math.floor(minY / tileWorld);
+            long lastY = (long) Math.floor(maxY / tileWorld);
+            if ((double) (lastX - firstX + 1) * (lastY - firstY + 1) > tiles.size()) {
+                tiles.keySet().removeIf(k -> k.level == level && k.x >= firstX && k.x <= lastX
+                        && k.y >= firstY && k.y <= lastY);
+                continue;
+            }
+            for (long tx = firstX; tx <= lastX; tx++) {
+                for (long ty = firstY; ty <= lastY; ty++) {
+                    tiles.remove(new TileKey(level, tx, ty));
+                }
+            }
+        }
+    }
+
+    private long cell(double coordinate) {
+        return (long) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private long key(long cx, long cy) {
+        return cx << 32 | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The segments whose bounding box overlaps one grid cell, and the color of the newest of them.
+     */
+    private static class Cell {
+        private int[] segments = new int[4];
+        private int size;
+        private int color;
+
+        private void add(int segment, int argb) {
+            if (size == segments.length) {
+                segments = Arrays.copyOf(segments, size * 2);
+            }
+            segments[size++] = segment;
+            color = argb;
+        }
+    }
+
+    private static class TileKey {
+        private int level;
+        private long x;
+        private long y;
+
+        private TileKey(int level, long x, long y) {
+            this.level = level;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            var other = (TileKey) o;
+            return level == other.level && x == other.x && y == other.y;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(level, x, y);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Classifies a single token into the path of the command class it stands for.
+ * Built once per language from the same translation entries the parser used to scan one by one:
+ * plain word alternatives such as {@code forward|fd} go into an exact-match hash table, and every
+ * other entry (Constant, Variable, brackets, ...) is compiled into one combined pattern.
+ * The first matching entry still wins, exactly like the old linear scan.
+ * <p>
+ * Each entry in the combined pattern is wrapped in a named group, which shifts the numbers of the groups
+ * inside it. An entry that refers to its own groups, by a numbered or named backreference, or that names
+ * a group itself, would then match something else or clash with the wrapping names, so it is kept as a
+ * separate pattern and tried on its own instead.
+ *
+ * @author agent
+ */
+public class TokenClassifier {
+
+    private static final Pattern LITERAL = Pattern.compile("(?:[A-Za-z0-9_]|\\\\[?!.*+])+");
+    private static final String ALTERNATIVE = "\\|";
+    private static final String GROUP = "g";
+    private static final String NOT_FOUND = "";
+
+    private Map<String, Integer> literals;
+    private Pattern combined;
+    private int[] combinedEntries;
+    private Pattern[] separate;
+    private int[] separateEntries;
+    private String[] paths;
+
+    /**
+     * Builds the classifier for one language.
+     * @param translations the ordered language and syntax entries mapping symbols to their regex
+     * @param commandTranslations the entries mapping command paths to the symbols they accept
+     */
+    public TokenClassifier(List<Map.Entry<String, Pattern>> translations,
+                           List<Map.Entry<String, Pattern>> commandTranslations) {
+        literals = new HashMap<>();
+        paths = new String[translations.size()];
+        var regex = new StringBuilder();
+        var entries = new int[translations.size()];
+        var separatePatterns = new Pattern[translations.size()];
+        var separateIndexes = new int[translations.size()];
+        int regexCount = 0;
+        int separateCount = 0;
+        for (int i = 0; i < translations.size(); i++) {
+            var entry = translations.get(i);
+            paths[i] = lookup(entry.getKey(), commandTranslations);
+            if (addLiterals(entry.getValue().pattern(), i)) {
+                continue;
+            }
+            if (refersToGroups(entry.getValue().pattern())) {
+                separatePatterns[separateCount] = entry.getValue();
+                separateIndexes[separateCount++] = i;
+            } else {
+                regex.append(regexCount == 0 ? "" : "|");
+                regex.append("(?<").append(GROUP).append(regexCount).append(">").append(entry.getValue().pattern()).append(")");
+                entries[regexCount++] = i;
+            }
+        }
+        combinedEntries = new int[regexCount];
+        System.arraycopy(entries, 0, combinedEntries, 0, regexCount);
+        separate = new Pattern[separateCount];
+        System.arraycopy(separatePatterns, 0, separate, 0, separateCount);
+        separateEntries = new int[separateCount];
+        System.arraycopy(separateIndexes, 0, separateEntries, 0, separateCount);
+        combined = regexCount == 0 ? null : Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Classifies the token.
+     * @param token a single whitespace-free token from the user's input
+     * @return the command path relative to {@code model.command}, or an empty string if there is none
+     */
+    public String classify(String token) {
+        var index = literals.get(token.toLowerCase(Locale.ROOT));
+        int first = index == null ? paths.length : index;
+        if (combined != null) {
+            Matcher m = combined.matcher(token);
+            if (m.matches()) {
+                for (int g = 0; g < combinedEntries.length && combinedEntries[g] < first; g++) {
+                    if (m.start(GROUP + g) != -1) {
+                        first = combinedEntries[g];
+                        break;
+                    }
+                }
+            }
+        }
+        for (int s = 0; s < separate.length && separateEntries[s] < first; s++) {
+            if (separate[s].matcher(token).matches()) {
+                first = separateEntries[s];
+                break;
+            }
+        }
+        return first < paths.length ? paths[first] : NOT_FOUND;
+    }
+
+    /**
+     * @return true if the regex has a backreference or a named group, which wrapping it in a group would break
+     */
+    private static boolean refersToGroups(String regex) {
+        for (int i = 0; i + 1 < regex.length(); i++) {
+            char c = regex.charAt(i);
+            char next = regex.charAt(i + 1);
+            if (c == '\\') {
+                if (Character.isDigit(next) || next == 'k') {
+                    return true;
+                }
+                i++;
+            } else if (c == '(' && next == '?' && i + 3 < regex.length() && regex.charAt(i + 2) == '<'
+                    && Character.isLetter(regex.charAt(i + 3))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers every alternative of the regex in the hash table if they are all plain words.
+     * @return false if the regex needs the pattern matcher
+     */
+    private boolean addLiterals(String regex, int index) {
+        var alternatives = regex.split(ALTERNATIVE);
+        for (var alternative : alternatives) {
+            if (!LITERAL.matcher(alternative).matches()) {
+                return false;
+            }
+        }
+        for (var alternative : alternatives) {
+            literals.putIfAbsent(alternative.replace("\\", "").toLowerCase(Locale.ROOT), index);
+        }
+        return true;
+    }
+
+    private String lookup(String symbol, List<Map.Entry<String, Pattern>> commandTranslations) {
+        for (var e : commandTranslations) {
+            if (e.getValue().matcher(symbol).matches()) {
+                return e.getKey();
+            }
+        }
+        return NOT_FOUND;
+    }
+}
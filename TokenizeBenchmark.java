@@ -0,0 +1,79 @@
+package model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how many tokens per second are split and classified, before and after the TokenClassifier:
+ * splitting the whole program on whitespace and scanning every translation pattern in turn, as the parser
+ * used to, against streaming tokens from a Tokenizer into the classifier.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+public class TokenizeBenchmark {
+
+    private static final int COMMANDS = 5000;
+    // Every flat command is a command name and one number
+    private static final int TOKENS = 2 * COMMANDS;
+
+    private List<Map.Entry<String, Pattern>> translations;
+    private List<Map.Entry<String, Pattern>> commandTranslations;
+    private TokenClassifier classifier;
+    private String program;
+
+    @Setup
+    public void setUp() {
+        var parser = new CommandParser();
+        translations = parser.translations;
+        commandTranslations = parser.commandTranslations;
+        classifier = new TokenClassifier(translations, commandTranslations);
+        program = new ProgramGenerator().flat(COMMANDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS)
+    public void linearScan(Blackhole blackhole) {
+        for (String token : program.split(CommandParser.WHITESPACE)) {
+            if (!token.isEmpty()) {
+                blackhole.consume(symbol(symbol(token, translations), commandTranslations));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS)
+    public void classifier(Blackhole blackhole) throws IOException {
+        var tokens = new Tokenizer(program);
+        for (String token = tokens.next(); token != null; token = tokens.next()) {
+            blackhole.consume(classifier.classify(token));
+        }
+    }
+
+    // The parser's lookup before the classifier: the first pattern that matches wins
+    private static String symbol(String text, List<Map.Entry<String, Pattern>> patterns) {
+        for (var e : patterns) {
+            if (e.getValue().matcher(text).matches()) {
+                return e.getKey();
+            }
+        }
+        return "";
+    }
+}
@@ -0,0 +1,90 @@
+package model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * Splits program text into whitespace-separated tokens one at a time, reading straight from a
+ * Reader or CharSequence so that a program never has to be held in memory as a whole.
+ * Whitespace is the same set of characters the old {@code \s+} split used.
+ *
+ * @author agent
+ */
+public class Tokenizer {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private Reader input;
+    private CharBuffer buffer;
+    private StringBuilder token;
+    private boolean stopped;
+
+    /**
+     * Creates a tokenizer over a reader. The caller remains responsible for closing the reader.
+     * @param input the program text
+     */
+    public Tokenizer(Reader input) {
+        this.input = input;
+        buffer = CharBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+        token = new StringBuilder();
+    }
+
+    /**
+     * Creates a tokenizer over text that is already in memory.
+     * @param input the program text
+     */
+    public Tokenizer(CharSequence input) {
+        buffer = CharBuffer.wrap(input);
+        token = new StringBuilder();
+    }
+
+    /**
+     * Reads the next token.
+     * @return the next token, or null once the input is exhausted or the tokenizer was stopped
+     * @throws IOException if the underlying reader fails
+     */
+    public String next() throws IOException {
+        if (stopped) {
+            return null;
+        }
+        token.setLength(0);
+        while (fill()) {
+            char c = buffer.get();
+            if (!isWhitespace(c)) {
+                token.append(c);
+            } else if (token.length() > 0) {
+                return token.toString();
+            }
+        }
+        return token.length() > 0 ? token.toString() : null;
+    }
+
+    /**
+     * Stops tokenizing; every later call to next returns null without reading any further input.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private boolean fill() throws IOException {
+        if (buffer.hasRemaining()) {
+            return true;
+        }
+        if (input == null) {
+            return false;
+        }
+        buffer.clear();
+        int read;
+        do {
+            read = input.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+        return read > 0;
+    }
+
+    private boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,331 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores pen trails as line segments packed into primitive arrays: four floats of coordinates, a packed
+ * ARGB color and a float width per segment, about 24 bytes instead of a scene graph node per stroke.
+ * Segments can only be appended, so a snapshot shares the arrays with the buffer it came from and
+ * never has to copy them; the front end turns segments into shapes only when it draws them.
+ * <p>
+ * A buffer can also be given a heap budget and a spill file. Once more segments than the budget are on
+ * the heap, the oldest half are written to a region of the file mapped into memory, and only the newest
+ * segments stay on the heap. Spilled segments are read straight from the mapped regions. The file is
+ * deleted when the buffer is closed; regions already mapped stay readable by snapshots.
+ * <p>
+ * Every buffer, and every clear of it, gets a new epoch number, which its snapshots share. A reader holding an
+ * earlier snapshot knows the segments it has seen are still the start of the trail only if the epoch is the same.
+ *
+ * @author agent
+ */
+public class TrailBuffer implements Closeable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int COORDINATES = 4;
+    private static final int RECORD_BYTES = 6 * Float.BYTES;
+    private static final int COLOR_OFFSET = 4 * Float.BYTES;
+    private static final int WIDTH_OFFSET = 5 * Float.BYTES;
+    private static final String SPILL_PREFIX = "trail";
+    private static final String SPILL_SUFFIX = ".bin";
+    private static final AtomicLong EPOCHS = new AtomicLong();
+
+    private float[] coordinates;
+    private int[] colors;
+    private float[] widths;
+    private int size;
+    private long epoch;
+    private boolean frozen;
+    private FileChannel spill;
+    private List<MappedByteBuffer> regions;
+    private int regionSize;
+    private int spilled;
+    private long spillPosition;
+
+    /**
+     * Create an empty trail buffer.
+     */
+    public TrailBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create an empty trail buffer that keeps at most about heapBudget segments on the heap and spills
+     * the rest to a memory-mapped file.
+     * @param directory the directory to create the spill file in
+     * @param heapBudget the number of segments to keep on the heap
+     * @throws IOException if the spill file cannot be created
+     */
+    public TrailBuffer(Path directory, int heapBudget) throws IOException {
+        this(heapBudget);
+        regionSize = Math.max(1, heapBudget / 2);
+        spill = FileChannel.open(Files.createTempFile(directory, SPILL_PREFIX, SPILL_SUFFIX),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    private TrailBuffer(int capacity) {
+        coordinates = new float[capacity * COORDINATES];
+        colors = new int[capacity];
+        widths = new float[capacity];
+        regions = new ArrayList<>();
+        epoch = EPOCHS.incrementAndGet();
+    }
+
+    /**
+     * Appends a segment.
+     * @param startX the x coordinate the segment starts at
+     * @param startY the y coordinate the segment starts at
+     * @param endX the x coordinate the segment ends at
+     * @param endY the y coordinate the segment ends at
+     * @param argb the pen color, packed as by TrailLines
+     * @param width the pen width
+     */
+    public void add(double startX, double startY, double endX, double endY, int argb, float width) {
+        checkWritable();
+        int heapSize = size - spilled;
+        if (heapSize == colors.length) {
+            grow(heapSize + 1);
+        }
+        int c = heapSize * COORDINATES;
+        coordinates[c] = (float) startX;
+        coordinates[c + 1] = (float) startY;
+        coordinates[c + 2] = (float) endX;
+        coordinates[c + 3] = (float) endY;
+        colors[heapSize] = argb;
+        widths[heapSize] = width;
+        size++;
+        spillIfOverBudget();
+    }
+
+    /**
+     * Appends every segment of another buffer, in order.
+     * @param other the segments to append
+     */
+    public void addAll(TrailBuffer other) {
+        checkWritable();
+        if (other.spilled > 0) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.getStartX(i), other.getStartY(i), other.getEndX(i), other.getEndY(i),
+                        other.getColor(i), (float) other.getWidth(i));
+            }
+            return;
+        }
+        int heapSize = size - spilled;
+        if (heapSize + other.size > colors.length) {
+            grow(heapSize + other.size);
+        }
+        System.arraycopy(other.coordinates, 0, coordinates, heapSize * COORDINATES, other.size * COORDINATES);
+        System.arraycopy(other.colors, 0, colors, heapSize, other.size);
+        System.arraycopy(other.widths, 0, widths, heapSize, other.size);
+        size += other.size;
+        spillIfOverBudget();
+    }
+
+    /**
+     * Removes every segment and starts a new epoch. Snapshots taken earlier keep their segments, so spilled
+     * regions are not reused and the spill file keeps growing until the buffer is closed.
+     */
+    public void clear() {
+        checkWritable();
+        int capacity = spill == null ? INITIAL_CAPACITY : colors.length;
+        coordinates = new float[capacity * COORDINATES];
+        colors = new int[capacity];
+        widths = new float[capacity];
+        regions = new ArrayList<>();
+        spilled = 0;
+        size = 0;
+        epoch = EPOCHS.incrementAndGet();
+    }
+
+    /**
+     * Closes and deletes the spill file, if there is one. Segments already spilled stay readable.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (spill != null) {
+            spill.close();
+        }
+    }
+
+    /**
+     * Creates a read-only view of the segments currently in the buffer, without copying them.
+     * @return the snapshot
+     */
+    public TrailBuffer snapshot() {
+        var snapshot = new TrailBuffer(0);
+        snapshot.coordinates = coordinates;
+        snapshot.colors = colors;
+        snapshot.widths = widths;
+        snapshot.size = size;
+        snapshot.regions = List.copyOf(regions);
+        snapshot.regionSize = regionSize;
+        snapshot.spilled = spilled;
+        snapshot.epoch = epoch;
+        snapshot.frozen = true;
+        return snapshot;
+    }
+
+    /**
+     * @return the number of segments
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the epoch the segments belong to, which changes whenever the buffer is cleared
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the number of segments spilled to the mapped file
+     */
+    public int spilledSize() {
+        return spilled;
+    }
+
+    /**
+     * @param i the index of the segment
+     * @return the x coordinate the segment starts at
+     */
+    public double getStartX(int i) {
+        return coordinate(i, 0);
+    }
+
+    /**
+     * @param i the index of the segment
+     * @return the y coordinate the segment starts at
+     */
+    public double getStartY(int i) {
+        return coordinate(i, 1);
+    }
+
+    /**
+     * @param i the index of the segment
+     * @return the x coordinate the segment ends at
+     */
+    public double getEndX(int i) {
+        return coordinate(i, 2);
+    }
+
+    /**
+     * @param i the index of the segment
+     * @return the y coordinate the segment ends at
+     */
+    public double getEndY(int i) {
+        return coordinate(i, 3);
+    }
+
+    /**
+     * @param i the index of the segment
+     * @return the segment's color, packed as by TrailLines
+     */
+    public int getColor(int i) {
+        if (i < spilled) {
+            return region(i).getInt(offset(i) + COLOR_OFFSET);
+        }
+        return colors[i - spilled];
+    }
+
+    /**
+     * @param i the index of the segment
+     * @return the segment's pen width
+     */
+    public double getWidth(int i) {
+        if (i < spilled) {
+            return region(i).getFloat(offset(i) + WIDTH_OFFSET);
+        }
+        return widths[i - spilled];
+    }
+
+    /**
+     * Checks whether a segment touches a rectangle, counting its width.
+     * @param i the index of the segment
+     * @return true if any part of the segment's bounding box is inside the rectangle
+     */
+    public boolean intersects(int i, double minX, double minY, double maxX, double maxY) {
+        double startX = getStartX(i);
+        double startY = getStartY(i);
+        double endX = getEndX(i);
+        double endY = getEndY(i);
+        double pad = getWidth(i) / 2;
+        return Math.min(startX, endX) - pad <= maxX && Math.max(startX, endX) + pad >= minX
+                && Math.min(startY, endY) - pad <= maxY && Math.max(startY, endY) + pad >= minY;
+    }
+
+    private float coordinate(int i, int index) {
+        if (i < spilled) {
+            return region(i).getFloat(offset(i) + index * Float.BYTES);
+        }
+        return coordinates[(i - spilled) * COORDINATES + index];
+    }
+
+    private MappedByteBuffer region(int i) {
+        return regions.get(i / regionSize);
+    }
+
+    private int offset(int i) {
+        return i % regionSize * RECORD_BYTES;
+    }
+
+    /**
+     * Writes the oldest segments on the heap to a new mapped region of the spill file until the heap is
+     * within budget. The newest segments are moved to new arrays rather than shifted in place, since
+     * snapshots may still share the old ones.
+     */
+    private void spillIfOverBudget() {
+        if (spill == null || size - spilled < 2 * regionSize) {
+            return;
+        }
+        int heapSize = size - spilled;
+        int offset = 0;
+        try {
+            while (heapSize - offset >= 2 * regionSize) {
+                var region = spill.map(FileChannel.MapMode.READ_WRITE, spillPosition, (long) regionSize * RECORD_BYTES);
+                for (int i = offset; i < offset + regionSize; i++) {
+                    for (int j = 0; j < COORDINATES; j++) {
+                        region.putFloat(coordinates[i * COORDINATES + j]);
+                    }
+                    region.putInt(colors[i]);
+                    region.putFloat(widths[i]);
+                }
+                regions.add(region);
+                spillPosition += (long) regionSize * RECORD_BYTES;
+                offset += regionSize;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int capacity = colors.length;
+        coordinates = Arrays.copyOfRange(coordinates, offset * COORDINATES, (offset + capacity) * COORDINATES);
+        colors = Arrays.copyOfRange(colors, offset, offset + capacity);
+        widths = Arrays.copyOfRange(widths, offset, offset + capacity);
+        spilled += offset;
+    }
+
+    private void checkWritable() {
+        if (frozen) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private void grow(int minimum) {
+        int capacity = Math.max(colors.length * 2, minimum);
+        coordinates = Arrays.copyOf(coordinates, capacity * COORDINATES);
+        colors = Arrays.copyOf(colors, capacity);
+        widths = Arrays.copyOf(widths, capacity);
+    }
+}
@@ -0,0 +1,27 @@
+package GUI.TabbedGUI.Tabs.Windows.TurtleView;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Turns the packed colors that results and trail buffers carry back into JavaFX colors for drawing.
+ * Colors are packed on the model side by TrailLines, eight bits per channel with alpha in the highest bits.
+ *
+ * @author agent
+ */
+public class TrailColors {
+
+    private static final int CHANNEL_MAX = 255;
+
+    private TrailColors() {
+    }
+
+    /**
+     * Unpacks a packed color.
+     * @param argb the packed color
+     * @return the color
+     */
+    public static Color toColor(int argb) {
+        return Color.color((argb >> 16 & CHANNEL_MAX) / (double) CHANNEL_MAX, (argb >> 8 & CHANNEL_MAX) / (double) CHANNEL_MAX,
+                (argb & CHANNEL_MAX) / (double) CHANNEL_MAX, (argb >>> 24) / (double) CHANNEL_MAX);
+    }
+}
@@ -0,0 +1,79 @@
+package model;
+
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+import javafx.scene.shape.Line;
+
+import java.util.List;
+
+/**
+ * The one place on the model side that reads JavaFX lines and colors. Turtles still draw their trails as lines,
+ * and the model still keeps its background as a color, because Model, Turtle and ImmutableTurtle are outside this
+ * repository. Everything else on the model side, and every result, works with what is read here: segments
+ * appended to a trail buffer, and colors packed into a single int, eight bits per channel with alpha in the
+ * highest bits, which the GUI unpacks with TrailColors.
+ * Once turtles append their segments to a trail buffer directly, this class can go.
+ *
+ * @author agent
+ */
+public class TrailLines {
+
+    private static final int CHANNEL_MAX = 255;
+
+    private TrailLines() {
+    }
+
+    /**
+     * @param turtle a turtle
+     * @return the number of segments in the turtle's trail
+     */
+    public static int count(ImmutableTurtle turtle) {
+        return turtle.getTrail().size();
+    }
+
+    /**
+     * Appends the segments of a turtle's trail from a given one on to a trail buffer.
+     * @param turtle the turtle
+     * @param from the index of the first segment to append
+     * @param trail the buffer to append to
+     */
+    public static void append(ImmutableTurtle turtle, int from, TrailBuffer trail) {
+        List<Line> lines = turtle.getTrail();
+        for (int i = from; i < lines.size(); i++) {
+            Line l = lines.get(i);
+            trail.add(l.getStartX(), l.getStartY(), l.getEndX(), l.getEndY(), argb(l.getStroke()),
+                    (float) l.getStrokeWidth());
+        }
+    }
+
+    /**
+     * Reads one segment of a turtle's trail.
+     * @param turtle the turtle
+     * @param index the index of the segment
+     * @return the segment's start x, start y, end x, end y, packed color and width
+     */
+    public static double[] segment(ImmutableTurtle turtle, int index) {
+        Line l = turtle.getTrail().get(index);
+        return new double[] {l.getStartX(), l.getStartY(), l.getEndX(), l.getEndY(), argb(l.getStroke()),
+                l.getStrokeWidth()};
+    }
+
+    /**
+     * @param model a model
+     * @return the model's background color, packed
+     */
+    public static int background(Model model) {
+        return argb(model.getBackgroundColor());
+    }
+
+    // Pens only draw in plain colors; anything else is recorded as black
+    private static int argb(Paint paint) {
+        var color = paint instanceof Color ? (Color) paint : Color.BLACK;
+        return channel(color.getOpacity()) << 24 | channel(color.getRed()) << 16
+                | channel(color.getGreen()) << 8 | channel(color.getBlue());
+    }
+
+    private static int channel(double value) {
+        return (int) Math.round(value * CHANNEL_MAX);
+    }
+}
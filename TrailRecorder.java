@@ -0,0 +1,113 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps a model's pen trails in a trail buffer. Turtles draw their trails as lines, so after each command the
+ * recorder appends the segments each turtle has drawn since the last time, read through TrailLines, and results
+ * carry a snapshot of the buffer instead of the lines themselves.
+ * A turtle whose trail got shorter, that is gone, or whose last recorded line is no longer where it was recorded,
+ * had its trail cleared, so the buffer is cleared and every remaining line is appended again. Checking the last
+ * line as well as the length catches a clear followed by drawing at least as many lines as there were.
+ *
+ * @author agent
+ */
+public class TrailRecorder implements Closeable {
+
+    private TrailBuffer trail;
+    private Map<Integer, Mark> recorded;
+
+    /**
+     * Create a recorder that keeps every segment on the heap.
+     */
+    public TrailRecorder() {
+        this(new TrailBuffer());
+    }
+
+    /**
+     * Create a recorder that keeps at most about heapBudget segments on the heap and spills the rest to a
+     * memory-mapped file.
+     * @param directory the directory to create the spill file in
+     * @param heapBudget the number of segments to keep on the heap
+     * @throws IOException if the spill file cannot be created
+     */
+    public TrailRecorder(Path directory, int heapBudget) throws IOException {
+        this(new TrailBuffer(directory, heapBudget));
+    }
+
+    private TrailRecorder(TrailBuffer trail) {
+        this.trail = trail;
+        recorded = new HashMap<>();
+    }
+
+    /**
+     * Appends the lines drawn since the last call.
+     * @param turtles the model's turtles, by id
+     * @return a snapshot of the trail buffer
+     */
+    public TrailBuffer record(Map<Integer, ImmutableTurtle> turtles) {
+        if (cleared(turtles)) {
+            trail.clear();
+            recorded.clear();
+        }
+        for (var entry : turtles.entrySet()) {
+            var turtle = entry.getValue();
+            var mark = recorded.get(entry.getKey());
+            TrailLines.append(turtle, mark == null ? 0 : mark.count, trail);
+            int count = TrailLines.count(turtle);
+            if (count > 0) {
+                recorded.put(entry.getKey(), new Mark(count, TrailLines.segment(turtle, count - 1)));
+            }
+        }
+        return trail.snapshot();
+    }
+
+    /**
+     * @return a snapshot of the trail buffer as of the last call to record
+     */
+    public TrailBuffer snapshot() {
+        return trail.snapshot();
+    }
+
+    /**
+     * Closes the trail buffer's spill file, if there is one.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        trail.close();
+    }
+
+    private boolean cleared(Map<Integer, ImmutableTurtle> turtles) {
+        for (var entry : recorded.entrySet()) {
+            var turtle = turtles.get(entry.getKey());
+            if (turtle == null || !entry.getValue().matches(turtle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How much of a turtle's trail has been recorded, and the last segment recorded, to tell whether the trail is
+     * still the one that was recorded or was cleared and drawn again.
+     */
+    private static class Mark {
+        private int count;
+        private double[] last;
+
+        private Mark(int count, double[] last) {
+            this.count = count;
+            this.last = last;
+        }
+
+        private boolean matches(ImmutableTurtle turtle) {
+            return TrailLines.count(turtle) >= count && Arrays.equals(TrailLines.segment(turtle, count - 1), last);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package model;
+
+import model.command.Command;
+import model.command.CommandKind;
+import model.command.Error;
+import model.command.control.group.ListBody;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+/**
+ * Builds command trees from a flat sequence of commands in a single pass.
+ * Commands are fed in one at a time; every command that is still waiting for parameters, and every
+ * open list or group, sits on an explicit stack instead of the Java call stack, so building takes
+ * time linear in the number of commands no matter how long or deeply nested the program is.
+ * Each tree is handed to the consumer as soon as its root is complete.
+ *
+ * @author agent
+ */
+public class TreeBuilder {
+
+    /**
+     * Passed as the remaining count when the number of commands still to come is not known.
+     */
+    public static final int UNKNOWN_REMAINING = Integer.MAX_VALUE;
+
+    private static final String NOT_ENOUGH_PARAMETERS = "Not enough parameters for command ";
+
+    private Deque<Frame> stack;
+    private Consumer<Command> roots;
+    private boolean groupHead;
+
+    /**
+     * Creates a tree builder.
+     * @param roots receives each command tree once its root is complete
+     */
+    public TreeBuilder(Consumer<Command> roots) {
+        this.roots = roots;
+        stack = new ArrayDeque<>();
+    }
+
+    /**
+     * Adds the next command in the program.
+     * @param command the next command
+     * @param remaining how many commands follow this one, or UNKNOWN_REMAINING
+     */
+    public void add(Command command, int remaining) {
+        var top = stack.peek();
+        if (groupHead) {
+            groupHead = false;
+            stack.push(new Frame(command, null, 0, CommandKind.GROUP_END));
+        } else if (top != null && top.end != null && command.getKind() == top.end) {
+            stack.pop();
+            complete(top.node);
+        } else {
+            open(command, remaining);
+        }
+    }
+
+    /**
+     * Ends the program. A tree that is still missing parameters or a closing bracket becomes an error.
+     */
+    public void finish() {
+        Frame outermost = null;
+        while (!stack.isEmpty()) {
+            outermost = stack.pop();
+        }
+        if (outermost != null) {
+            var node = outermost.owner != null ? outermost.owner : outermost.node;
+            roots.accept(new Error(NOT_ENOUGH_PARAMETERS + node.toString()));
+        }
+        groupHead = false;
+    }
+
+    private void open(Command command, int remaining) {
+        if (command.getArgCount() == 0) {
+            complete(command);
+        } else if (command.getKind() == CommandKind.USER_COMMAND) {
+            int count = command.getParameters().get(0).getParameters().size();
+            var param = new ListBody();
+            if (count == 0) {
+                command.addParameter(param);
+                complete(command);
+            } else {
+                stack.push(new Frame(param, command, count, null));
+            }
+        } else if (command.getKind() == CommandKind.LIST_START) {
+            stack.push(new Frame(new ListBody(), null, 0, CommandKind.LIST_END));
+        } else if (command.getKind() == CommandKind.GROUP_START) {
+            groupHead = true;
+        } else if (remaining < command.getArgCount()) {
+            complete(new Error(NOT_ENOUGH_PARAMETERS + command.toString()));
+        } else {
+            stack.push(new Frame(command, null, command.getArgCount(), null));
+        }
+    }
+
+    /**
+     * Attaches a finished command to the command waiting for it, finishing every parent whose last
+     * parameter that was, until a parent still needs more or the root is reached.
+     */
+    private void complete(Command command) {
+        while (!stack.isEmpty()) {
+            var top = stack.peek();
+            top.node.addParameter(command);
+            if (top.end != null || --top.remaining > 0) {
+                return;
+            }
+            stack.pop();
+            if (top.owner != null) {
+                top.owner.addParameter(top.node);
+                command = top.owner;
+            } else {
+                command = top.node;
+            }
+        }
+        roots.accept(command);
+    }
+
+    /**
+     * A command under construction: either waiting for a fixed number of parameters,
+     * or collecting parameters until the matching end bracket.
+     */
+    private static class Frame {
+        private Command node;
+        private Command owner;
+        private int remaining;
+        private CommandKind end;
+
+        private Frame(Command node, Command owner, int remaining, CommandKind end) {
+            this.node = node;
+            this.owner = owner;
+            this.remaining = remaining;
+            this.end = end;
+        }
+    }
+}
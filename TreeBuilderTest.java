@@ -0,0 +1,123 @@
+package model;
+
+import model.command.Command;
+import model.command.CommandKind;
+import model.command.Error;
+import model.command.control.If;
+import model.command.turtle.command.Forward;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the trees the parser builds, that building them does not use the call stack for nesting, and that
+ * building time grows linearly with the number of tokens.
+ *
+ * @author agent
+ */
+public class TreeBuilderTest {
+
+    private static final int DEEP_NESTING = 100_000;
+    private static final int TOKENS_PER_FLAT_COMMAND = 2;
+    private static final int[] SCALING_TOKENS = {1_000, 100_000, 1_000_000};
+    private static final int TIMING_ROUNDS = 3;
+    // A quadratic builder would be ten times slower per token from 10^5 to 10^6 tokens
+    private static final double MAX_SLOWDOWN_PER_TOKEN = 4;
+
+    @Test
+    public void buildsSeparateRootsWithTheirParameters() {
+        var roots = parse("fd 50 rt 90");
+        assertEquals(2, roots.size());
+        assertTrue(roots.get(0) instanceof Forward);
+        assertEquals(1, roots.get(0).getParameters().size());
+        assertEquals(1, roots.get(1).getParameters().size());
+        assertEquals(3.0, new TreeWalkingEngine().execute(parse("sum 1 2").get(0), new Model()));
+    }
+
+    @Test
+    public void missingParametersBecomeAnError() {
+        assertTrue(parse("fd").get(0) instanceof Error);
+        var roots = parse("fd 1 rt");
+        assertEquals(2, roots.size());
+        assertTrue(roots.get(1) instanceof Error);
+    }
+
+    @Test
+    public void unclosedListBecomesAnError() {
+        var roots = parse("if 1 [ fd 1");
+        assertEquals(1, roots.size());
+        assertTrue(roots.get(0) instanceof Error);
+    }
+
+    @Test
+    public void userCommandCallsCollectTheirArguments() {
+        var model = new Model();
+        var parser = new CommandParser();
+        var engine = new TreeWalkingEngine();
+        for (Command root : parser.parse("to f [ :a :b ] [ fd :a ]", model)) {
+            engine.execute(root, model);
+        }
+        var roots = parser.parse("f 1 2 fd 3", model);
+        assertEquals(2, roots.size());
+        assertEquals(CommandKind.USER_COMMAND, roots.get(0).getKind());
+        var parameters = roots.get(0).getParameters();
+        assertEquals(2, parameters.get(parameters.size() - 1).getParameters().size());
+        assertTrue(roots.get(1) instanceof Forward);
+    }
+
+    @Test
+    public void deepNestingDoesNotOverflowTheStack() {
+        var roots = parse(new ProgramGenerator().nested(DEEP_NESTING));
+        assertEquals(1, roots.size());
+        int depth = 0;
+        Command command = roots.get(0);
+        while (command instanceof If) {
+            depth++;
+            var body = command.getParameters().get(1);
+            command = body.getParameters().get(0);
+        }
+        assertEquals(DEEP_NESTING, depth);
+    }
+
+    @Test
+    public void deepTreesPrintAndReportErrorsWithoutOverflowingTheStack() {
+        var program = "if 1 [ ".repeat(DEEP_NESTING) + "fd 1 missing" + " ]".repeat(DEEP_NESTING);
+        var roots = parse(program);
+        assertFalse(ModelController.commandTreeContainsError(roots).isEmpty());
+        assertTrue(roots.get(0).toString().startsWith("If\n -> "));
+        assertEquals("", ModelController.commandTreeContainsError(parse(new ProgramGenerator().nested(DEEP_NESTING))));
+    }
+
+    /**
+     * Parses programs of 10^3, 10^5 and 10^6 tokens. Only the two larger ones are compared, since 10^3 tokens
+     * parse too quickly to time reliably.
+     */
+    @Test
+    public void buildingTimeGrowsLinearly() {
+        var nanosPerToken = new double[SCALING_TOKENS.length];
+        for (int i = 0; i < SCALING_TOKENS.length; i++) {
+            int commands = SCALING_TOKENS[i] / TOKENS_PER_FLAT_COMMAND;
+            var program = new ProgramGenerator().flat(commands);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < TIMING_ROUNDS; round++) {
+                long start = System.nanoTime();
+                var roots = parse(program);
+                best = Math.min(best, System.nanoTime() - start);
+                assertEquals(commands, roots.size());
+            }
+            nanosPerToken[i] = (double) best / SCALING_TOKENS[i];
+        }
+        int last = SCALING_TOKENS.length - 1;
+        assertTrue(nanosPerToken[last] <= MAX_SLOWDOWN_PER_TOKEN * nanosPerToken[last - 1],
+                String.format("%.1f ns per token at %d tokens, %.1f at %d", nanosPerToken[last - 1],
+                        SCALING_TOKENS[last - 1], nanosPerToken[last], SCALING_TOKENS[last]));
+    }
+
+    private List<Command> parse(String program) {
+        return new CommandParser().parse(program, new Model());
+    }
+}
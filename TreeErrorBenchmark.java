@@ -0,0 +1,43 @@
+package model;
+
+import model.command.Command;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the search for Error nodes that follows every execution, on trees without errors,
+ * which is the case where the whole tree has to be visited.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class TreeErrorBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int commands;
+
+    private List<Command> roots;
+
+    @Setup
+    public void setUp() {
+        roots = new CommandParser().parse(new ProgramGenerator().flat(commands), new Model());
+    }
+
+    @Benchmark
+    public String commandTreeContainsError() {
+        return ModelController.commandTreeContainsError(roots);
+    }
+}
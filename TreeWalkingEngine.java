@@ -0,0 +1,16 @@
+package model;
+
+import model.command.Command;
+
+/**
+ * The default execution engine, which walks the command tree through each command's own execute method.
+ *
+ * @author agent
+ */
+public class TreeWalkingEngine implements ExecutionEngine {
+
+    @Override
+    public double execute(Command root, Model model) {
+        return root.execute(model);
+    }
+}
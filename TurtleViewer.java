@@ -1,66 +1,193 @@
 package GUI.TabbedGUI.Tabs.Windows.TurtleView;
 
 import javafx.geometry.Insets;
-import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
-import javafx.scene.shape.Line;
 import model.ImmutableTurtle;
 import model.Result;
+import model.TrailBuffer;
 
-import java.util.List;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/**
+ * Draws the turtles and their trails. Trails come in a trail buffer and are drawn through a TileCache onto a
+ * canvas at the bottom, so the view can be panned and zoomed over huge drawings with setViewport. Each result
+ * only paints the segments drawn since the last one, straight onto a second canvas above it; the tiles are
+ * drawn again, and that canvas emptied, only when the viewer is resized, panned or zoomed, or a trail is cleared.
+ * Scrolling zooms in and out around the mouse, and dragging pans the view.
+ * Turtles are kept as image nodes in a small overlay above the canvases.
+ * Accepts both snapshot and delta results.
+ *
+ * @author agent
+ */
 public class TurtleViewer extends Pane {
 
     public static final double CENTER_POINT_MULTIPLIER = 0.5;
 
     private static final String BORDER_CSS = "-fx-border-color: black";
     private static String CSS_FILE = "TurtleViewer.css";
+    private static final double ZOOM_PER_SCROLL_STEP = 1.25;
+    private static final double SCROLL_STEP = 40;
+    private static final double MIN_SCALE = 1.0 / 1024;
+    private static final double MAX_SCALE = 64;
+
+    private Canvas tileLayer;
+    private Canvas trails;
+    private TileCache tiles;
+    private TrailBuffer trail;
+    private int drawnSegments;
+    private double scale;
+    private double viewX;
+    private double viewY;
+    private Map<Integer, ImmutableTurtle> turtles;
+    private Map<Integer, double[]> positions;
+    private double dragX;
+    private double dragY;
+
     public TurtleViewer(double width, double height) {
         setWidth(width);
         setHeight(height);
         this.getStylesheets().add(getClass().getResource(CSS_FILE).toExternalForm());
         setBackground(new Background(new BackgroundFill(Color.WHITE, new CornerRadii(0), new Insets(0))));
         setStyle(BORDER_CSS);
+        tileLayer = new Canvas(width, height);
+        trails = new Canvas(width, height);
+        tiles = new TileCache();
+        scale = 1;
+        turtles = new LinkedHashMap<>();
+        positions = new HashMap<>();
+        getChildren().addAll(tileLayer, trails);
+        widthProperty().addListener((observable, oldWidth, newWidth) -> resize());
+        heightProperty().addListener((observable, oldHeight, newHeight) -> resize());
+        setOnScroll(this::zoom);
+        setOnMousePressed(this::startDrag);
+        setOnMouseDragged(this::drag);
     }
 
     public void addResult(Result result) {
-        List<Node> children = getChildren();
-        children.clear();
-        for (ImmutableTurtle t : result.getTurtles().values()) {
-            t = updateTurtleX(t);
-            t = updateTurtleY(t);
-            t.setRotate(ImmutableTurtle.DEFAULT_HEADING - t.getHeading());
-            children.add(t);
-            for (Line l : t.getTrail()) {
-                l.setStartX(l.getStartX() + getWidth() * CENTER_POINT_MULTIPLIER);
-                l.setStartY(getHeight() - (l.getStartY() + getHeight() * CENTER_POINT_MULTIPLIER));
-                l.setEndX(l.getEndX() + getWidth() * CENTER_POINT_MULTIPLIER);
-                l.setEndY(getHeight() - (l.getEndY() + getHeight() * CENTER_POINT_MULTIPLIER));
-                children.add(l);
+        if (!result.isDelta()) {
+            turtles.clear();
+            positions.keySet().retainAll(result.getTurtles().keySet());
+        }
+        for (var entry : result.getTurtles().entrySet()) {
+            var t = entry.getValue();
+            turtles.put(entry.getKey(), t);
+            positions.put(entry.getKey(), new double[] {t.getX(), t.getY()});
+        }
+        if (result.getTrail() != null) {
+            // A trail in a new epoch was cleared, or replaced, since it was last drawn
+            boolean redraw = trail != null && result.getTrail().getEpoch() != trail.getEpoch();
+            trail = result.getTrail();
+            tiles.update(trail);
+            if (redraw) {
+                redrawTrails();
+            } else {
+                drawNewSegments();
             }
         }
-        setBackground(new Background(new BackgroundFill(result.getBackgroundColor(), new CornerRadii(0), new Insets(0))));
+        layoutTurtles();
+        setBackground(new Background(new BackgroundFill(TrailColors.toColor(result.getBackgroundArgb()), new CornerRadii(0), new Insets(0))));
+    }
+
+    /**
+     * Pans and zooms the view.
+     * @param scale the number of pixels per unit of turtle movement, 1 to show the drawing at its normal size
+     * @param centerX the x coordinate, in turtle coordinates, to show in the middle of the view
+     * @param centerY the y coordinate, in turtle coordinates, to show in the middle of the view
+     */
+    public void setViewport(double scale, double centerX, double centerY) {
+        this.scale = scale;
+        viewX = centerX;
+        viewY = centerY;
+        redrawTrails();
+        layoutTurtles();
+    }
+
+    // Keeps the point under the mouse where it is while the scale changes
+    private void zoom(ScrollEvent event) {
+        double newScale = scale * Math.pow(ZOOM_PER_SCROLL_STEP, event.getDeltaY() / SCROLL_STEP);
+        newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, newScale));
+        double offsetX = event.getX() - getWidth() * CENTER_POINT_MULTIPLIER;
+        double offsetY = getHeight() * CENTER_POINT_MULTIPLIER - event.getY();
+        setViewport(newScale, viewX + offsetX / scale - offsetX / newScale, viewY + offsetY / scale - offsetY / newScale);
+        event.consume();
+    }
+
+    private void startDrag(MouseEvent event) {
+        dragX = event.getX();
+        dragY = event.getY();
+    }
+
+    private void drag(MouseEvent event) {
+        double newX = viewX - (event.getX() - dragX) / scale;
+        double newY = viewY + (event.getY() - dragY) / scale;
+        startDrag(event);
+        setViewport(scale, newX, newY);
+    }
+
+    private void resize() {
+        tileLayer.setWidth(getWidth());
+        tileLayer.setHeight(getHeight());
+        trails.setWidth(getWidth());
+        trails.setHeight(getHeight());
+        redrawTrails();
+        layoutTurtles();
+    }
+
+    // Every segment indexed so far is on the tiles, so the canvas above them starts out empty again
+    private void redrawTrails() {
+        GraphicsContext gc = tileLayer.getGraphicsContext2D();
+        gc.clearRect(0, 0, tileLayer.getWidth(), tileLayer.getHeight());
+        tiles.draw(gc, scale, viewX, viewY, getWidth(), getHeight());
+        trails.getGraphicsContext2D().clearRect(0, 0, trails.getWidth(), trails.getHeight());
+        drawnSegments = trail == null ? 0 : trail.size();
+    }
+
+    private void drawNewSegments() {
+        GraphicsContext gc = trails.getGraphicsContext2D();
+        for (int i = drawnSegments; i < trail.size(); i++) {
+            gc.setStroke(TrailColors.toColor(trail.getColor(i)));
+            gc.setLineWidth(trail.getWidth(i));
+            strokeLine(gc, trail.getStartX(i), trail.getStartY(i), trail.getEndX(i), trail.getEndY(i));
+        }
+        drawnSegments = trail.size();
     }
 
-    public ImmutableTurtle updateTurtleX(ImmutableTurtle t) {
-        var newLeft = t.getX() + getWidth() * CENTER_POINT_MULTIPLIER - t.getImage().getWidth() * CENTER_POINT_MULTIPLIER;
-        var maxLeft = this.getWidth() - t.getImage().getWidth();
-        newLeft = getLoc(newLeft, maxLeft);
-        t.setX(newLeft);
-        return t;
+    // Model coordinates have y pointing up, and the point the view is centered on in the middle of the viewer
+    private void strokeLine(GraphicsContext gc, double startX, double startY, double endX, double endY) {
+        gc.strokeLine(screenX(startX), screenY(startY), screenX(endX), screenY(endY));
     }
 
-    public ImmutableTurtle updateTurtleY(ImmutableTurtle t) {
-        var newTop = getHeight() - (t.getY() + getHeight() * CENTER_POINT_MULTIPLIER) - t.getImage().getHeight() * CENTER_POINT_MULTIPLIER;
-        var maxTop = this.getHeight() - t.getImage().getHeight();
-        newTop = getLoc(newTop, maxTop);
-        t.setY(newTop);
-        return t;
+    private double screenX(double x) {
+        return (x - viewX) * scale + getWidth() * CENTER_POINT_MULTIPLIER;
+    }
+
+    private double screenY(double y) {
+        return getHeight() * CENTER_POINT_MULTIPLIER - (y - viewY) * scale;
+    }
+
+    private void layoutTurtles() {
+        getChildren().setAll(tileLayer, trails);
+        for (var entry : turtles.entrySet()) {
+            var t = entry.getValue();
+            var position = positions.get(entry.getKey());
+            var newLeft = screenX(position[0]) - t.getImage().getWidth() * CENTER_POINT_MULTIPLIER;
+            var newTop = screenY(position[1]) - t.getImage().getHeight() * CENTER_POINT_MULTIPLIER;
+            t.setX(getLoc(newLeft, getWidth() - t.getImage().getWidth()));
+            t.setY(getLoc(newTop, getHeight() - t.getImage().getHeight()));
+            t.setRotate(ImmutableTurtle.DEFAULT_HEADING - t.getHeading());
+            getChildren().add(t);
+        }
     }
 
     public double getLoc(double newLoc, double maxLoc) {
@@ -77,6 +204,6 @@ public class TurtleViewer extends Pane {
     }
 
     public int numTurtles() {
-        return getChildren().size();
+        return turtles.size();
     }
 }
@@ -1,8 +1,10 @@
 package model.command.control;
 
 import model.Model;
+import model.SlotResolver;
 import model.command.Command;
-import model.command.Error;
+import model.command.CommandException;
+import model.command.ExecutionBudget;
 import model.command.ValueCommand;
 
 import java.util.ResourceBundle;
@@ -18,27 +20,64 @@ public class UserCommand extends Command {
 
     private static final int ARG_COUNT = 3;
 
+    private int bodySize = -1;
+    private String name;
+    private ScopedBody resolved;
+
     public UserCommand() {
         super();
         this.argCount = ARG_COUNT;
     }
 
+    /**
+     * Set the name the user command was called by.
+     * @param name the name of the user command
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the name the user command was called by.
+     * @return the name of the user command, or null if it was not created by the parser
+     */
+    public String getName() {
+        return name;
+    }
+
     @Override
     public double execute(Model model) {
         var variables = this.parameters.get(0).getParameters();
-        var command = this.parameters.get(1);
         var values = this.parameters.get(2).getParameters();
+        var arguments = new double[variables.size()];
         for(int i = 0; i < variables.size(); i++) {
-            var variable = variables.get(i);
-            var value = values.get(i);
-            if (!(variable instanceof ValueCommand) || !(value instanceof ValueCommand)) {
-                parameters.add(new Error(ResourceBundle.getBundle("Error").getString("MalformedUserCommand")));
+            if (!(variables.get(i) instanceof ValueCommand) || i >= values.size()) {
+                throw new CommandException(ResourceBundle.getBundle("Error").getString("MalformedUserCommand"));
             }
-            var varName = ((ValueCommand<String>) variable).getValue();
-            var val = ((ValueCommand<Double>) value).getValue();
-            model.getVariables().put(varName, val);
+            arguments[i] = values.get(i).execute(model);
         }
 
-        return command.execute(model);
+        var body = getBody();
+        if (bodySize < 0) {
+            bodySize = ExecutionBudget.size(body.getBody());
+        }
+        ExecutionBudget.charge(bodySize);
+        return body.invoke(model, arguments);
+    }
+
+    /**
+     * Get the body of the user command with the frame its parameters were resolved to. Bodies defined through
+     * the parser were resolved when they were defined; any other body is resolved here, once.
+     * @return the body of the user command
+     */
+    public ScopedBody getBody() {
+        var command = this.parameters.get(1);
+        if (command instanceof ScopedBody) {
+            return (ScopedBody) command;
+        }
+        if (resolved == null || resolved.getBody() != command) {
+            resolved = SlotResolver.scope(this.parameters.get(0).getParameters(), command);
+        }
+        return resolved;
     }
 }
@@ -7,7 +7,9 @@ import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 import model.Result;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class VarDisplay extends Window {
 
@@ -15,6 +17,7 @@ public class VarDisplay extends Window {
     private static final String VARIABLE_DISPLAY = "Variable Display";
 
     private VBox items;
+    private Map<String, Double> variables;
 
     /**
      * Window which displays instantiated variables.
@@ -27,6 +30,7 @@ public class VarDisplay extends Window {
         super(width, height, commandText);
         this.getStylesheets().add(getClass().getResource(CSS_FILE).toExternalForm());
         items = new VBox();
+        variables = new HashMap<>();
         getChildren().add(items);
         Text t = new Text(VARIABLE_DISPLAY);
         items.getChildren().add(t);
@@ -35,12 +39,17 @@ public class VarDisplay extends Window {
     }
 
     public void addResult(Result result){
+        if (!result.isDelta()) {
+            variables.clear();
+        }
+        variables.putAll(result.getVariables());
+        variables.keySet().removeAll(result.getRemovedVariables());
         List<Node> children = items.getChildren();
         children.clear();
         children.add(new Text(VARIABLE_DISPLAY));
-        if(!result.getVariables().isEmpty()) {
-            for (String var : result.getVariables().keySet()) {
-                Text t = new Text(var + "=" + result.getVariables().get(var));
+        if(!variables.isEmpty()) {
+            for (String var : variables.keySet()) {
+                Text t = new Text(var + "=" + variables.get(var));
                 children.add(t);
             }
         }